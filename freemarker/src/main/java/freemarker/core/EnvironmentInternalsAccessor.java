@@ -16,6 +16,10 @@
 package freemarker.core;
 
 
+import java.lang.reflect.Field;
+import java.util.List;
+
+
 /**
  * This class accesses the internals of {@link Environment} that are non-public.
  *
@@ -23,6 +27,21 @@ package freemarker.core;
  */
 public class EnvironmentInternalsAccessor {
 
+    // The live instruction stack of an environment, or null if it is inaccessible, e.g. under a security manager.
+    private static final Field INSTRUCTION_STACK = getInstructionStackField();
+
+
+    private static Field getInstructionStackField() {
+        try {
+            Field f = Environment.class.getDeclaredField("instructionStack");
+            if (!List.class.isAssignableFrom(f.getType())) return null;
+            f.setAccessible(true);
+            return f;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      * Returns the snapshot of the FTL stack trace.
      *
@@ -34,4 +53,48 @@ public class EnvironmentInternalsAccessor {
         return Environment.getCurrentEnvironment().getInstructionStackSnapshot();
     }
 
+    /**
+     * Returns an element of the FTL stack trace without copying the stack, unless the stack is inaccessible.
+     *
+     * @param depth {@code 0} - the top element, {@code +N} - N-th element from the top, {@code -N} - N-th element from
+     * the bottom
+     * @return the element or {@code null} if the stack is not that deep
+     *
+     * @see Environment#getInstructionStackSnapshot()
+     */
+    public static TemplateElement getInstructionStackElement(int depth) {
+        Environment env = Environment.getCurrentEnvironment();
+        List stack = getInstructionStack(env);
+
+        if (stack == null) {
+            TemplateElement[] snapshot = env.getInstructionStackSnapshot();
+            int ln = (snapshot == null) ? 0 : snapshot.length;
+            if (depth > ln - 1 || depth < -ln) return null;
+            return snapshot[(depth < 0) ? ln + depth : depth];
+        }
+
+        // count only the elements shown in the stack trace, just like the snapshot does
+        if (depth >= 0) {
+            for (int i = stack.size() - 1; i >= 0; i--) {
+                TemplateElement el = (TemplateElement) stack.get(i);
+                if (el.isShownInStackTrace() && depth-- == 0) return el;
+            }
+        } else {
+            for (int i = 0, ln = stack.size(); i < ln; i++) {
+                TemplateElement el = (TemplateElement) stack.get(i);
+                if (el.isShownInStackTrace() && ++depth == 0) return el;
+            }
+        }
+        return null;
+    }
+
+    private static List getInstructionStack(Environment env) {
+        if (INSTRUCTION_STACK == null) return null;
+        try {
+            return (List) INSTRUCTION_STACK.get(env);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.benchmarks;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+
+/**
+ * This class creates an in-memory H2 database that stands in for Oracle in benchmarks. The database runs in Oracle
+ * compatibility mode and contains a single table {@code bench_rows} with the specified number of rows.
+ */
+public class BenchmarkDatabase {
+
+
+    /**
+     * The query selecting all the rows of the benchmark table.
+     */
+    public static final String SELECT_ALL = "select id, name, created, amount from bench_rows order by id";
+
+
+    /**
+     * Opens a connection to a new in-memory database and fills the benchmark table.
+     *
+     * @param name the database name, must be unique within a JVM
+     * @param rowCount the number of rows in the benchmark table
+     * @return the connection, the database is dropped when it is closed
+     * @throws SQLException if a database access error occurs
+     * @throws ClassNotFoundException if the H2 driver is not in the classpath
+     */
+    public static Connection open(String name, int rowCount) throws SQLException, ClassNotFoundException {
+        Class.forName("org.h2.Driver");
+        Connection conn = DriverManager.getConnection("jdbc:h2:mem:" + name + ";MODE=Oracle");
+
+        Statement st = conn.createStatement();
+        try {
+            st.execute("create table bench_rows ("
+                    + "id number(10) primary key, name varchar2(30), created date, amount number(12, 2))");
+        } finally {
+            st.close();
+        }
+
+        PreparedStatement ps = conn.prepareStatement("insert into bench_rows values (?, ?, ?, ?)");
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 1; i <= rowCount; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "row_" + i);
+                ps.setTimestamp(3, new Timestamp(now - i * 60000L));
+                ps.setBigDecimal(4, java.math.BigDecimal.valueOf(i * 125L, 2));
+                ps.addBatch();
+                if (i % 1000 == 0) ps.executeBatch();
+            }
+            ps.executeBatch();
+        } finally {
+            ps.close();
+        }
+
+        return conn;
+    }
+
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.benchmarks;
+
+
+import ftldb.oracle.ClobWriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Clob;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares writing template output to a CLOB through the driver's buffered character stream
+ * ({@link Clob#setCharacterStream(long)}), which the Oracle template processor used before, with writing through a
+ * {@link ClobWriter}. Since there is no Oracle database here, the LOB is simulated: every LOB call burns a fixed amount
+ * of CPU standing for a server-side LOB write, and the driver's stream is a {@link BufferedWriter} of the specified
+ * size that makes one LOB call per flush.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClobWriterBenchmark {
+
+
+    // The simulated cost of one LOB call in JMH tokens.
+    @Param({"1000"})
+    public int callCost;
+
+    // The number of write() calls, each writing a short piece like a template's static text or interpolation.
+    @Param({"10000"})
+    public int writeCount;
+
+    // The buffer size of the driver's character stream, e.g. a LOB chunk or the optimal buffer size.
+    @Param({"8132", "32768"})
+    public int streamBufferSize;
+
+    private Clob clob;
+    private String piece = "  col_1 varchar2(100),\n";
+
+
+    @Setup
+    public void setUp() {
+        clob = (Clob) Proxy.newProxyInstance(Clob.class.getClassLoader(), new Class<?>[]{Clob.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("setString")) {
+                            Blackhole.consumeCPU(callCost);
+                            return ((String) args[1]).length();
+                        }
+                        if (method.getName().equals("setCharacterStream")) {
+                            return new BufferedWriter(new LobCallWriter(), streamBufferSize);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+
+    @Benchmark
+    public long characterStream() throws Exception {
+        long chars = 0;
+        Writer w = clob.setCharacterStream(1);
+        for (int i = 0; i < writeCount; i++) {
+            w.write(piece);
+            chars += piece.length();
+        }
+        w.close();
+        return chars;
+    }
+
+
+    @Benchmark
+    public long clobWriter() throws Exception {
+        ClobWriter w = new ClobWriter(clob, 1);
+        for (int i = 0; i < writeCount; i++) {
+            w.write(piece);
+        }
+        w.close();
+        return w.getPosition();
+    }
+
+
+    // Makes one simulated LOB call per write, like the driver's stream does when its buffer is flushed.
+    private class LobCallWriter extends Writer {
+
+        public void write(char[] cbuf, int off, int len) {
+            Blackhole.consumeCPU(callCost);
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+
+    }
+
+
+}
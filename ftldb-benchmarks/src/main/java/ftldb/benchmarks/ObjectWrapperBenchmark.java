@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.benchmarks;
+
+
+import freemarker.template.Configuration;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateModel;
+import ftldb.DefaultObjectWrapper;
+import ftldb.ext.sql.FetchedResultSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures {@link DefaultObjectWrapper#wrap} on the values that JDBC returns for typical Oracle columns and on the
+ * FTLDB's own SQL types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectWrapperBenchmark {
+
+
+    private ObjectWrapper wrapper;
+    private Connection conn;
+    private Timestamp timestamp;
+    private BigDecimal number;
+    private String string;
+    private Clob clob;
+    private FetchedResultSet frs;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        wrapper = new DefaultObjectWrapper(Configuration.VERSION_2_3_23);
+        conn = BenchmarkDatabase.open("wrap", 10);
+
+        timestamp = new Timestamp(System.currentTimeMillis());
+        number = new BigDecimal("12345.67");
+        string = "row_1";
+
+        Statement st = conn.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("select cast(rpad('x', 1000, 'x') as clob) c from dual");
+            rs.next();
+            clob = rs.getClob(1);
+            rs.close();
+
+            rs = st.executeQuery(BenchmarkDatabase.SELECT_ALL);
+            frs = new FetchedResultSet(rs);
+            rs.close();
+        } finally {
+            st.close();
+        }
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+
+    @Benchmark
+    public TemplateModel wrapTimestamp() throws Exception {
+        return wrapper.wrap(timestamp);
+    }
+
+
+    @Benchmark
+    public TemplateModel wrapNumber() throws Exception {
+        return wrapper.wrap(number);
+    }
+
+
+    @Benchmark
+    public TemplateModel wrapString() throws Exception {
+        return wrapper.wrap(string);
+    }
+
+
+    @Benchmark
+    public TemplateModel wrapClob() throws Exception {
+        return wrapper.wrap(clob);
+    }
+
+
+    @Benchmark
+    public TemplateModel wrapFetchedResultSet() throws Exception {
+        return wrapper.wrap(frs);
+    }
+
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.benchmarks;
+
+
+import freemarker.template.Template;
+import ftldb.DefaultConfiguration;
+import ftldb.ext.sql.ColumnarResultSet;
+import ftldb.ext.sql.FetchedResultSet;
+import ftldb.ext.sql.FetchedResultSetTransposed;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the SQL model hot paths: {@link FetchedResultSet} construction from a JDBC result set, iteration over
+ * its rows in FTL and its transposition, both in Java and in FTL. The same is measured for {@link ColumnarResultSet},
+ * whose transposition is a view.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSetBenchmark {
+
+
+    @Param({"100", "10000"})
+    public int rowCount;
+
+    private Connection conn;
+    private PreparedStatement ps;
+    private FetchedResultSet frs;
+    private ColumnarResultSet crs;
+    private Template listTemplate;
+    private Template transposeTemplate;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        conn = BenchmarkDatabase.open("rs" + rowCount, rowCount);
+        ps = conn.prepareStatement(BenchmarkDatabase.SELECT_ALL);
+        frs = fetch();
+        crs = fetchColumnar();
+
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        listTemplate = new Template("list.ftl", new StringReader(
+                "<#list res as r>${r.ID} ${r.NAME} ${r.CREATED?datetime} ${r[3]}\n</#list>"), cfg);
+        transposeTemplate = new Template("transpose.ftl", new StringReader(
+                "<#list res.transpose() as col>${col?size}<#list col as v>${v?is_number?c}</#list>\n</#list>"), cfg);
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ps.close();
+        conn.close();
+    }
+
+
+    @Benchmark
+    public FetchedResultSet fetch() throws Exception {
+        ResultSet rs = ps.executeQuery();
+        try {
+            return new FetchedResultSet(rs);
+        } finally {
+            rs.close();
+        }
+    }
+
+
+    @Benchmark
+    public ColumnarResultSet fetchColumnar() throws Exception {
+        ResultSet rs = ps.executeQuery();
+        try {
+            return new ColumnarResultSet(rs);
+        } finally {
+            rs.close();
+        }
+    }
+
+
+    @Benchmark
+    public String listRows() throws Exception {
+        return render(listTemplate, frs);
+    }
+
+
+    @Benchmark
+    public String listColumnarRows() throws Exception {
+        return render(listTemplate, crs);
+    }
+
+
+    @Benchmark
+    public FetchedResultSetTransposed transpose() {
+        return new FetchedResultSetTransposed(frs);
+    }
+
+
+    @Benchmark
+    public String listTransposed() throws Exception {
+        return render(transposeTemplate, frs);
+    }
+
+
+    @Benchmark
+    public String listColumnarTransposed() throws Exception {
+        return render(transposeTemplate, crs);
+    }
+
+
+    private String render(Template template, Object res) throws Exception {
+        StringWriter sw = new StringWriter();
+        template.process(Collections.singletonMap("res", res), sw);
+        return sw.toString();
+    }
+
+
+}
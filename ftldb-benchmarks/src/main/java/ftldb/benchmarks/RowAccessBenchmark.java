@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.benchmarks;
+
+
+import freemarker.template.Template;
+import ftldb.DefaultConfiguration;
+import ftldb.ext.sql.FetchedResultSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures access to the cells of a wide {@link FetchedResultSet} in FTL: every column of every row is read twice, as
+ * templates often use a column in several places, by its label or by its index. The values are not printed, so
+ * formatting does not hide the model's own overhead. Run with {@code -prof gc} to see the allocation rate and GC time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowAccessBenchmark {
+
+
+    static final int COLUMN_COUNT = 30;
+
+
+    @Param({"100000"})
+    public int rowCount;
+
+    private Connection conn;
+    private FetchedResultSet frs;
+    private Template byLabelTemplate;
+    private Template byIndexTemplate;
+
+
+    @Setup
+    public void setUp() throws Exception {
+        conn = BenchmarkDatabase.open("rows" + rowCount, rowCount);
+
+        StringBuffer query = new StringBuffer("select ");
+        StringBuffer byLabel = new StringBuffer("<#list res as r>");
+        StringBuffer byIndex = new StringBuffer("<#list res as r>");
+        for (int i = 1; i <= COLUMN_COUNT; i++) {
+            if (i > 1) query.append(", ");
+            query.append(i % 3 == 0 ? "name" : i % 3 == 1 ? "id" : "amount").append(" c").append(i);
+            byLabel.append("<#if r.C").append(i).append("?? && r.C").append(i).append("??></#if>");
+            byIndex.append("<#if r[").append(i - 1).append("]?? && r[").append(i - 1).append("]??></#if>");
+        }
+        query.append(" from bench_rows order by id");
+        byLabel.append("\n</#list>");
+        byIndex.append("\n</#list>");
+
+        Statement st = conn.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(query.toString());
+            frs = new FetchedResultSet(rs);
+        } finally {
+            st.close();
+        }
+
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        byLabelTemplate = new Template("by_label.ftl", new StringReader(byLabel.toString()), cfg);
+        byIndexTemplate = new Template("by_index.ftl", new StringReader(byIndex.toString()), cfg);
+    }
+
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+
+    @Benchmark
+    public void accessByLabel() throws Exception {
+        byLabelTemplate.process(Collections.singletonMap("res", frs), NullWriter.INSTANCE);
+    }
+
+
+    @Benchmark
+    public void accessByIndex() throws Exception {
+        byIndexTemplate.process(Collections.singletonMap("res", frs), NullWriter.INSTANCE);
+    }
+
+
+    /**
+     * Discards the output, so that only the model access is measured.
+     */
+    static final class NullWriter extends Writer {
+
+        static final NullWriter INSTANCE = new NullWriter();
+
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        public void write(String str) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+
+    }
+
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.benchmarks;
+
+
+import freemarker.cache.StringTemplateLoader;
+import ftldb.Configurator;
+import ftldb.DefaultConfiguration;
+import ftldb.TemplateProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures processing of a typical code generating template through {@link TemplateProcessor}: parsing plus
+ * rendering of a template body, and rendering of a named template taken from the template cache. Also measures a
+ * template calling static methods and source mapping helpers in a loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateProcessingBenchmark {
+
+
+    static final String TEMPLATE_NAME = "bench.ftl";
+
+    static final String TEMPLATE_BODY =
+            "<#macro column name type>${name?right_pad(30)} ${type}</#macro>\n"
+            + "create table ${template_args[0]} (\n"
+            + "<#list 1..50 as i>\n"
+            + "  <@column name=\"col_\" + i type=(i % 3 == 0)?then(\"number\", \"varchar2(100)\")/><#sep>,</#sep>\n"
+            + "</#list>\n"
+            + ");\n"
+            + "<#list 1..50 as i>\n"
+            + "comment on column ${template_args[0]}.col_${i} is '${\"Column #\" + i}';\n"
+            + "</#list>\n";
+
+    static final String[] TEMPLATE_ARGS = {"bench_table"};
+
+    static final String STATIC_TEMPLATE_NAME = "bench_static.ftl";
+
+    static final String STATIC_TEMPLATE_BODY =
+            "<#list 1..100 as i>${static(\"java.lang.Math\").abs(-i)} ${static(\"java.lang.Integer\").toHexString(i)}\n"
+            + "</#list>";
+
+    static final String MAPPING_TEMPLATE_NAME = "@bench/mapping.ftl";
+
+    static final String MAPPING_TEMPLATE_BODY =
+            "<#macro stmt n><#nested/>; -- ${template_dirname()}:${template_line()}\n</#macro>\n"
+            + "<#list 1..100 as i><#if i % 2 == 0><@stmt i>update t set n = ${i}</@stmt>"
+            + "<#else><@stmt i>delete from t where n = ${i}</@stmt></#if></#list>";
+
+
+    @Setup
+    public void setUp() {
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        StringTemplateLoader loader = new StringTemplateLoader();
+        loader.putTemplate(TEMPLATE_NAME, TEMPLATE_BODY);
+        loader.putTemplate(STATIC_TEMPLATE_NAME, STATIC_TEMPLATE_BODY);
+        loader.putTemplate(MAPPING_TEMPLATE_NAME, MAPPING_TEMPLATE_BODY);
+        cfg.setTemplateLoader(loader);
+        Configurator.setConfiguration(cfg);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        Configurator.dropConfiguration();
+    }
+
+
+    @Benchmark
+    public String parseAndRender() throws Exception {
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(new StringReader(TEMPLATE_BODY), TEMPLATE_ARGS, sw);
+        return sw.toString();
+    }
+
+
+    @Benchmark
+    public String renderCached() throws Exception {
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(TEMPLATE_NAME, TEMPLATE_ARGS, sw);
+        return sw.toString();
+    }
+
+
+    @Benchmark
+    public String renderStaticCalls() throws Exception {
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(STATIC_TEMPLATE_NAME, TEMPLATE_ARGS, sw);
+        return sw.toString();
+    }
+
+
+    @Benchmark
+    public String renderSourceMapping() throws Exception {
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(MAPPING_TEMPLATE_NAME, TEMPLATE_ARGS, sw);
+        return sw.toString();
+    }
+
+
+}
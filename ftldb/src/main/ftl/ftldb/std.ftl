@@ -238,7 +238,7 @@
 <#--
 -- Includes the specified template passing the specified arguments to it. This
 -- macro should be used instead of the built-in #include directive for including
--- parameterized templates that use the "template_args" shared variable inside.
+-- parameterized templates that use the "template_args" variable inside.
 --
 -- @param  name            the template name
 -- @param  args            the sequence of arguments
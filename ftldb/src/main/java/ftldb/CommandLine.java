@@ -18,6 +18,7 @@ package ftldb;
 
 import freemarker.template.Configuration;
 import freemarker.template.TemplateException;
+import ftldb.ext.WorkerPool;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -36,6 +37,11 @@ public class CommandLine {
      * The main entry point. Processes each listed template in left-to-right order, passing its arguments as a sequence
      * named {@code template_args}. Templates (with their arguments) are delimited by a '!' sign.
      *
+     * <p>With the {@code -p threads} option templates are processed concurrently by the specified number of threads.
+     * Each result is buffered in memory and printed in the original order as soon as all the previous ones are
+     * printed, so the output is the same as in the sequential mode. The templates must be independent of each other,
+     * e.g. must not read shared variables set by the preceding ones.
+     *
      * @param args the full list of arguments
      * @throws IOException if a file access error occurs
      * @throws TemplateException if a template processing error occurs
@@ -47,16 +53,28 @@ public class CommandLine {
                     + " based on FreeMarker v" + Configurator.getFreeMarkerVersion() + ".");
         }
 
-        Configuration cfg;
+        Configuration cfg = null;
+        int threads = 1;
         int skip = 0;
 
-        if (args.length > 0 && args[0].equals("-c")) {
-            if (args.length < 2) {
-                exitWithUsageExample("Config XML file name is missing!");
+        while (args.length > skip && args[skip].startsWith("-")) {
+            if (args[skip].equals("-c")) {
+                if (args.length < skip + 2) {
+                    exitWithUsageExample("Config XML file name is missing!");
+                }
+                cfg = Configurator.newConfiguration(new FileInputStream(new File(args[skip + 1])));
+            } else if (args[skip].equals("-p")) {
+                if (args.length < skip + 2) {
+                    exitWithUsageExample("Number of threads is missing!");
+                }
+                threads = parseThreads(args[skip + 1]);
+            } else {
+                exitWithUsageExample("Unknown option: " + args[skip]);
             }
-            cfg = Configurator.newConfiguration(new FileInputStream(new File(args[1])));
             skip += 2;
-        } else {
+        }
+
+        if (cfg == null) {
             cfg = new DefaultConfiguration();
             cfg.setTemplateLoader(new ResourceTemplateLoader());
         }
@@ -69,21 +87,88 @@ public class CommandLine {
         Configurator.setConfiguration(cfg);
         Writer out = new OutputStreamWriter(System.out);
 
+        if (threads > 1) {
+            processInParallel(calls, threads, out);
+            return;
+        }
+
         for (Iterator cmdIt = calls.iterator(); cmdIt.hasNext(); ) {
             List call = (List) cmdIt.next();
             if (call.size() == 0) continue;
+            TemplateProcessor.process(getTemplateName(call), getTemplateArgs(call), out);
+        }
 
-            String templateName = (String) call.get(0);
-            if ("".equals(templateName.trim())) {
-                throw new RuntimeException("Empty template file name in call: " + call);
+    }
+
+
+    private static void processInParallel(List calls, int threads, Writer out) throws IOException, TemplateException {
+        WorkerPool pool = new WorkerPool("ftldb-cmd", threads);
+        List tasks = new ArrayList(calls.size());
+
+        try {
+            for (Iterator cmdIt = calls.iterator(); cmdIt.hasNext(); ) {
+                List call = (List) cmdIt.next();
+                if (call.size() == 0) continue;
+
+                final String templateName = getTemplateName(call);
+                final String[] templateArgs = getTemplateArgs(call);
+
+                tasks.add(pool.submit(new WorkerPool.Job() {
+                    public Object run() throws Exception {
+                        StringWriter sw = new StringWriter();
+                        TemplateProcessor.process(templateName, templateArgs, sw);
+                        return sw.toString();
+                    }
+                }));
             }
 
-            String[] templateArgs = (String[]) call.subList(1, call.size()).toArray(new String[call.size() - 1]);
+            for (Iterator taskIt = tasks.iterator(); taskIt.hasNext(); ) {
+                out.write((String) getResult((WorkerPool.Task) taskIt.next()));
+                out.flush();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            TemplateProcessor.setArguments(templateArgs);
-            TemplateProcessor.process(templateName, out);
+
+    private static Object getResult(WorkerPool.Task task) throws IOException, TemplateException {
+        try {
+            return task.get();
+        } catch (IOException e) {
+            throw e;
+        } catch (TemplateException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
+    }
 
+
+    private static String getTemplateName(List call) {
+        String templateName = (String) call.get(0);
+        if ("".equals(templateName.trim())) {
+            throw new RuntimeException("Empty template file name in call: " + call);
+        }
+        return templateName;
+    }
+
+
+    private static String[] getTemplateArgs(List call) {
+        return (String[]) call.subList(1, call.size()).toArray(new String[call.size() - 1]);
+    }
+
+
+    private static int parseThreads(String s) {
+        try {
+            int threads = Integer.parseInt(s);
+            if (threads > 0) return threads;
+        } catch (NumberFormatException ignored) {
+        }
+        exitWithUsageExample("Number of threads must be a positive integer: " + s);
+        return 1;
     }
 
 
@@ -115,7 +200,7 @@ public class CommandLine {
             System.err.println(msg);
         }
         System.err.println("Usage: java " + CommandLine.class.getName()
-                            + " [-c configXmlFile]"
+                            + " [-c configXmlFile] [-p threads]"
                             + " @ftlFile1 arg1 ... argN [" + FTL_CALL_DELIM
                             + " @ftlFile2 arg1 ... argN [" + FTL_CALL_DELIM
                             + " @ftlFileN ...]]");
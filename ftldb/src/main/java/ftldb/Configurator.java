@@ -23,19 +23,34 @@ import freemarker.template.Version;
 import java.beans.ExceptionListener;
 import java.beans.XMLDecoder;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Properties;
 
 
 /**
  * This class sets up the FreeMarker configuration as a singleton.
+ *
+ * <p>The configuration is shared by all threads, so once it is set it should only be read. Reading does not take any
+ * locks, so templates can be processed in parallel. Everything that is specific to a particular processing, such as
+ * template arguments, is passed in the data model (see {@link TemplateProcessor}).
+ *
+ * <p>Decoding the configuration XML is slow, so {@link #setConfigurationIfChanged(InputStream)} skips it if the XML
+ * is the same as the current configuration's.
  */
 public class Configurator {
 
 
-    // The current configuration.
-    private static Configuration config;
+    // The current configuration. Volatile, since it is read without locking.
+    private static volatile Configuration config;
+
+    // The digest of the XML the current configuration is decoded from, null if it is set or changed otherwise.
+    private static byte[] configXMLDigest;
+
+    private static volatile long initTime;
 
 
     /**
@@ -43,19 +58,31 @@ public class Configurator {
      *
      * @return the current configuration
      */
-    public static synchronized Configuration getConfiguration() {
-        ensureConfigurationIsSet();
-        return config;
+    public static Configuration getConfiguration() {
+        Configuration cfg = config;
+        ensureConfigurationIsSet(cfg);
+        return cfg;
     }
 
 
     /**
-     * Setter for the inner {@link Configuration} static field.
+     * Setter for the inner {@link Configuration} static field. The replaced configuration, if it is a
+     * {@link DefaultConfiguration}, is closed.
      *
      * @param config the new configuration
      */
     public static synchronized void setConfiguration(Configuration config) {
+        Configuration previous = Configurator.config;
         Configurator.config = config;
+        configXMLDigest = null;
+        close(previous, config);
+    }
+
+
+    private static void close(Configuration previous, Configuration current) {
+        if (previous != current && previous instanceof DefaultConfiguration) {
+            ((DefaultConfiguration) previous).close();
+        }
     }
 
 
@@ -98,8 +125,85 @@ public class Configurator {
      *
      * @param configXMLInputStream the new configuration as an XML binary stream
      */
-    public static void setConfiguration(InputStream configXMLInputStream) {
-        setConfiguration(newConfiguration(configXMLInputStream));
+    public static synchronized void setConfiguration(InputStream configXMLInputStream) {
+        init(configXMLInputStream, false);
+    }
+
+
+    /**
+     * Works like {@link #setConfiguration(InputStream)}, but keeps the current configuration if it has been decoded
+     * from the same XML and has not been changed via {@link #setConfigurationSetting(String, String)} since then. The
+     * kept configuration starts afresh: its template cache is cleared and, if it is a {@link DefaultConfiguration},
+     * so are its result cache and {@code shared_hash} (see {@link DefaultConfiguration#resetState()}).
+     *
+     * <p>Changes made directly to the object returned by {@link #getConfiguration()} are not detected, so this method
+     * must not be used if the configuration is changed that way.
+     *
+     * @param configXMLInputStream the new configuration as an XML binary stream
+     */
+    public static synchronized void setConfigurationIfChanged(InputStream configXMLInputStream) {
+        init(configXMLInputStream, true);
+    }
+
+
+    private static void init(InputStream configXMLInputStream, boolean keepUnchanged) {
+        long start = System.currentTimeMillis();
+
+        byte[] xml = readConfigXML(configXMLInputStream);
+        byte[] digest = digest(xml);
+        Configuration cfg = config;
+        // isEqual does not accept null before Java 8
+        if (keepUnchanged && cfg != null && configXMLDigest != null
+                && MessageDigest.isEqual(digest, configXMLDigest)) {
+            cfg.clearTemplateCache();
+            if (cfg instanceof DefaultConfiguration) {
+                ((DefaultConfiguration) cfg).resetState();
+            }
+        } else {
+            setConfiguration(newConfiguration(new ByteArrayInputStream(xml)));
+            configXMLDigest = digest;
+        }
+
+        initTime = System.currentTimeMillis() - start;
+    }
+
+
+    private static byte[] readConfigXML(InputStream ins) {
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                for (int n = ins.read(buf); n >= 0; n = ins.read(buf)) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                ins.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read configuration XML", e);
+        }
+    }
+
+
+    private static byte[] digest(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 digest is not supported", e);
+        }
+    }
+
+
+    /**
+     * Returns the time taken by the last call to {@link #setConfiguration(InputStream)} or
+     * {@link #setConfigurationIfChanged(InputStream)}, including reading the XML. A kept configuration takes almost no
+     * time.
+     *
+     * @return the last initialization time in milliseconds
+     */
+    public static long getInitTime() {
+        return initTime;
     }
 
 
@@ -113,6 +217,16 @@ public class Configurator {
     }
 
 
+    /**
+     * The convenience method for {@link #setConfigurationIfChanged(InputStream)}.
+     *
+     * @param configXMLString the new configuration as an XML string
+     */
+    public static void setConfigurationIfChanged(String configXMLString) {
+        setConfigurationIfChanged(new ByteArrayInputStream(configXMLString.getBytes()));
+    }
+
+
     /**
      * Sets the specified setting in the current configuration with the specified value.
      *
@@ -121,21 +235,27 @@ public class Configurator {
      * @throws TemplateException if cannot set the setting
      */
     public static synchronized void setConfigurationSetting(String name, String value) throws TemplateException {
-        ensureConfigurationIsSet();
-        config.setSetting(name, value);
+        Configuration cfg = config;
+        ensureConfigurationIsSet(cfg);
+        cfg.setSetting(name, value);
+        configXMLDigest = null;
     }
 
 
     /**
-     * Drops the current configuration. In order to continue, the configuration must be re-set.
+     * Drops the current configuration. In order to continue, the configuration must be re-set. The dropped
+     * configuration, if it is a {@link DefaultConfiguration}, is closed.
      */
     public static synchronized void dropConfiguration() {
+        Configuration previous = config;
         config = null;
+        configXMLDigest = null;
+        close(previous, null);
     }
 
 
-    private static void ensureConfigurationIsSet() {
-        if (config == null) {
+    private static void ensureConfigurationIsSet(Configuration cfg) {
+        if (cfg == null) {
             throw new NullPointerException("FTLDB configuration is not initialized");
         }
     }
@@ -21,13 +21,23 @@ import freemarker.template.Configuration;
 import freemarker.template.TemplateExceptionHandler;
 import freemarker.template.TemplateModelException;
 import ftldb.ext.*;
+import ftldb.ext.sql.BatchExecutor;
+import ftldb.ext.sql.ConnectionPool;
 import ftldb.ext.sql.Connector;
+import ftldb.ext.sql.StatementCache;
+
+import java.util.StringTokenizer;
 
 
 /**
  * The default configuration. Supports the latest FreeMarker features. Uses the FTLDB's default object wrapper, which
  * extends FreeMarker's with SQL type wrapping. Localized lookup is switched off. FTL exceptions are simply rethrown.
  *
+ * <p>Parsed templates are kept only in memory, by the template cache (see {@link #setCacheStorage}). FreeMarker's
+ * parsed templates are not serializable, so they cannot be stored on disk or in a database table, and each new JVM or
+ * database session parses the templates it uses again. Use a cache storage that keeps templates, e.g.
+ * {@link freemarker.cache.MruCacheStorage}, so that they are parsed only once per JVM.
+ *
  * <p>Registered shared variables and methods are:
  * <ul>
  *     <li>{@code shared_hash} - see {@link SharedHash}
@@ -35,6 +45,7 @@ import ftldb.ext.sql.Connector;
  *     <li>{@code template} - see {@link ftldb.ext.TemplateHelper.TemplateDirective}
  *     <li>{@code template_name} - see {@link ftldb.ext.TemplateHelper.TemplateNameMethod}
  *     <li>{@code template_line} - see {@link ftldb.ext.TemplateHelper.TemplateLineMethod}
+ *     <li>{@code prefetch_templates} - see {@link ftldb.ext.TemplateHelper.PrefetchTemplatesMethod}
  *     <li>{@code new_connection} - see {@link ftldb.ext.sql.Connector.NewConnectionMethod}
  *     <li>{@code default_connection} - see {@link ftldb.ext.sql.Connector.GetDefaultConnectionMethod}
  *     <li>{@code set_default_connection} - see {@link ftldb.ext.sql.Connector.SetDefaultConnectionDirective}
@@ -44,6 +55,23 @@ import ftldb.ext.sql.Connector;
 public class DefaultConfiguration extends Configuration {
 
 
+    private int defaultFetchSize;
+    private int statementCacheSize = StatementCache.DEFAULT_MAX_SIZE;
+    private int defaultBatchSize = BatchExecutor.DEFAULT_BATCH_SIZE;
+    private int resultCacheSize;
+    private long resultCacheTimeToLive;
+    private TemplateResultCache resultCache;
+    private int connectionPoolSize;
+    private long connectionPoolMaxIdleTime = ConnectionPool.DEFAULT_MAX_IDLE_TIME;
+    private String connectionValidationQuery;
+    private ConnectionPool connectionPool;
+    private int parallelQueryThreads = 4;
+    private WorkerPool queryWorkers;
+    private long shellCommandTimeout;
+    private int shellOutputLimit = ShellCommandExecutor.DEFAULT_OUTPUT_LIMIT;
+    private final StaticMethod staticMethod = new StaticMethod(this);
+
+
     public DefaultConfiguration() {
         // Set FreeMarker features up to the latest version
         super(getVersion());
@@ -59,18 +87,420 @@ public class DefaultConfiguration extends Configuration {
     }
 
 
-    protected void registerUserDefinedVariablesAndMethods() {
+    /**
+     * Returns the default number of rows fetched in one round trip by queries executed via connections opened in FTL.
+     *
+     * @return the default fetch size, {@code 0} means the driver's default
+     */
+    public int getDefaultFetchSize() {
+        return defaultFetchSize;
+    }
+
+
+    /**
+     * Sets the default number of rows fetched in one round trip by queries executed via connections opened in FTL. It
+     * can be overridden for a particular connection or query. For Oracle this is the row prefetch size, which is 10 by
+     * default in the driver.
+     *
+     * @param defaultFetchSize the default fetch size, {@code 0} means the driver's default
+     */
+    public void setDefaultFetchSize(int defaultFetchSize) {
+        if (defaultFetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size must be non-negative: " + defaultFetchSize);
+        }
+        this.defaultFetchSize = defaultFetchSize;
+    }
+
+
+    /**
+     * Returns the maximum number of statements cached by each connection opened in FTL.
+     *
+     * @return the statement cache size
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of statements cached by each connection opened in FTL. Cached statements are re-executed
+     * without re-parsing, the least recently used ones are closed when the cache is full. The default value is
+     * {@link StatementCache#DEFAULT_MAX_SIZE}.
+     *
+     * @param statementCacheSize the statement cache size, {@code 0} disables caching
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("Statement cache size must be non-negative: " + statementCacheSize);
+        }
+        this.statementCacheSize = statementCacheSize;
+    }
+
+
+    /**
+     * Returns the default number of DML statements sent in one round trip by batches executed via connections opened
+     * in FTL.
+     *
+     * @return the default batch size
+     */
+    public int getDefaultBatchSize() {
+        return defaultBatchSize;
+    }
+
+
+    /**
+     * Sets the default number of DML statements sent in one round trip by batches executed via connections opened in
+     * FTL. It can be overridden for a particular connection or batch. The default value is
+     * {@link BatchExecutor#DEFAULT_BATCH_SIZE}.
+     *
+     * @param defaultBatchSize the default batch size
+     */
+    public void setDefaultBatchSize(int defaultBatchSize) {
+        if (defaultBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + defaultBatchSize);
+        }
+        this.defaultBatchSize = defaultBatchSize;
+    }
+
+
+    /**
+     * Returns the maximum number of template processing results cached by {@link TemplateProcessor}.
+     *
+     * @return the result cache size, {@code 0} means the cache is disabled
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of template processing results cached by {@link TemplateProcessor}. Results are keyed by
+     * the template name and arguments and are dropped when the template is reloaded, so repeated calls skip
+     * processing. The cache is disabled by
+     * default. See {@link TemplateResultCache} for limitations.
+     *
+     * @param resultCacheSize the result cache size, {@code 0} disables the cache
+     */
+    public synchronized void setResultCacheSize(int resultCacheSize) {
+        if (resultCacheSize < 0) {
+            throw new IllegalArgumentException("Result cache size must be non-negative: " + resultCacheSize);
+        }
+        this.resultCacheSize = resultCacheSize;
+        this.resultCache = null;
+    }
+
+
+    /**
+     * Returns the maximum age of a cached template processing result.
+     *
+     * @return the time to live in milliseconds, {@code 0} means unlimited
+     */
+    public long getResultCacheTimeToLive() {
+        return resultCacheTimeToLive;
+    }
+
+
+    /**
+     * Sets the maximum age of a cached template processing result.
+     *
+     * @param resultCacheTimeToLive the time to live in milliseconds, {@code 0} means unlimited
+     */
+    public synchronized void setResultCacheTimeToLive(long resultCacheTimeToLive) {
+        if (resultCacheTimeToLive < 0) {
+            throw new IllegalArgumentException("Result cache time to live must be non-negative: "
+                    + resultCacheTimeToLive);
+        }
+        this.resultCacheTimeToLive = resultCacheTimeToLive;
+        this.resultCache = null;
+    }
+
+
+    /**
+     * Returns the cache of template processing results. Changing the cache settings drops the cached results.
+     *
+     * @return the result cache or {@code null} if it is disabled
+     */
+    public synchronized TemplateResultCache getResultCache() {
+        if (resultCache == null && resultCacheSize > 0) {
+            resultCache = new TemplateResultCache(resultCacheSize, resultCacheTimeToLive);
+        }
+        return resultCache;
+    }
+
+
+    /**
+     * Returns the maximum number of pooled connections with the same url and properties opened in FTL by
+     * {@code new_connection}.
+     *
+     * @return the connection pool size, {@code 0} means the pool is disabled
+     */
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+
+    /**
+     * Sets the maximum number of pooled connections with the same url and properties opened in FTL by
+     * {@code new_connection}. Pooled connections are reused by subsequent templates, so they skip the login. The pool
+     * is disabled by default. See {@link ConnectionPool} for details.
+     *
+     * @param connectionPoolSize the connection pool size, {@code 0} disables the pool
+     */
+    public synchronized void setConnectionPoolSize(int connectionPoolSize) {
+        if (connectionPoolSize < 0) {
+            throw new IllegalArgumentException("Connection pool size must be non-negative: " + connectionPoolSize);
+        }
+        this.connectionPoolSize = connectionPoolSize;
+        resetConnectionPool();
+    }
+
+
+    /**
+     * Returns the time an idle pooled connection is kept open.
+     *
+     * @return the maximum idle time in milliseconds, {@code 0} means unlimited
+     */
+    public long getConnectionPoolMaxIdleTime() {
+        return connectionPoolMaxIdleTime;
+    }
+
+
+    /**
+     * Sets the time an idle pooled connection is kept open. The default is
+     * {@link ConnectionPool#DEFAULT_MAX_IDLE_TIME}.
+     *
+     * @param connectionPoolMaxIdleTime the maximum idle time in milliseconds, {@code 0} means unlimited
+     */
+    public synchronized void setConnectionPoolMaxIdleTime(long connectionPoolMaxIdleTime) {
+        if (connectionPoolMaxIdleTime < 0) {
+            throw new IllegalArgumentException("Connection pool idle time must be non-negative: "
+                    + connectionPoolMaxIdleTime);
+        }
+        this.connectionPoolMaxIdleTime = connectionPoolMaxIdleTime;
+        resetConnectionPool();
+    }
+
+
+    /**
+     * Returns the query that checks an idle pooled connection before reuse.
+     *
+     * @return the validation query or {@code null} if it is not set
+     */
+    public String getConnectionValidationQuery() {
+        return connectionValidationQuery;
+    }
+
+
+    /**
+     * Sets the query that checks an idle pooled connection before reuse, e.g. {@code select 1 from dual}. If it is not
+     * set, a connection is only checked for not being closed.
+     *
+     * @param connectionValidationQuery the validation query, {@code null} means no query
+     */
+    public synchronized void setConnectionValidationQuery(String connectionValidationQuery) {
+        this.connectionValidationQuery = connectionValidationQuery;
+        resetConnectionPool();
+    }
+
+
+    /**
+     * Returns the pool of connections opened in FTL. Changing the pool settings closes the idle connections of the
+     * previous pool.
+     *
+     * @return the connection pool or {@code null} if it is disabled
+     */
+    public synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null && connectionPoolSize > 0) {
+            connectionPool = new ConnectionPool(connectionPoolSize, connectionPoolMaxIdleTime,
+                    connectionValidationQuery);
+        }
+        return connectionPool;
+    }
+
+
+    private void resetConnectionPool() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+
+
+    /**
+     * Releases the resources held by the configuration: the idle connections of the pool are closed, and connections
+     * in use are closed when they are returned; the parallel query threads exit after the queued queries.
+     * {@link Configurator} calls this method when the configuration is replaced or dropped. The configuration can still
+     * be used afterwards, the pool and the threads are then created anew.
+     */
+    public synchronized void close() {
+        resetConnectionPool();
+        resetQueryWorkers();
+    }
+
+
+    /**
+     * Returns the maximum number of queries executed at the same time by {@code parallelQuery} of a connection.
+     *
+     * @return the number of threads, {@code 0} means the queries are executed one after another
+     */
+    public int getParallelQueryThreads() {
+        return parallelQueryThreads;
+    }
+
+
+    /**
+     * Sets the maximum number of queries executed at the same time by {@code parallelQuery} of a connection. Each
+     * query uses its own connection, so enabling the connection pool is recommended. The default is 4. See
+     * {@link ftldb.ext.sql.ParallelQueryExecutor} for details.
+     *
+     * @param parallelQueryThreads the number of threads, {@code 0} means the queries are executed one after another
+     */
+    public synchronized void setParallelQueryThreads(int parallelQueryThreads) {
+        if (parallelQueryThreads < 0) {
+            throw new IllegalArgumentException("Parallel query thread count must be non-negative: "
+                    + parallelQueryThreads);
+        }
+        this.parallelQueryThreads = parallelQueryThreads;
+        resetQueryWorkers();
+    }
+
+
+    private void resetQueryWorkers() {
+        if (queryWorkers != null) {
+            queryWorkers.shutdown();
+            queryWorkers = null;
+        }
+    }
+
+
+    /**
+     * Returns the threads executing parallel queries. They are started on demand.
+     *
+     * @return the worker pool or {@code null} if parallel queries are disabled
+     */
+    public synchronized WorkerPool getQueryWorkers() {
+        if (queryWorkers == null && parallelQueryThreads > 0) {
+            queryWorkers = new WorkerPool("ftldb-query", parallelQueryThreads);
+        }
+        return queryWorkers;
+    }
+
+
+    /**
+     * Returns the default maximum execution time of a command run by {@code shell_exec}.
+     *
+     * @return the timeout in milliseconds, {@code 0} means unlimited
+     */
+    public long getShellCommandTimeout() {
+        return shellCommandTimeout;
+    }
+
+
+    /**
+     * Sets the default maximum execution time of a command run by {@code shell_exec}. A command that does not finish
+     * in time is killed. The default is unlimited.
+     *
+     * @param shellCommandTimeout the timeout in milliseconds, {@code 0} means unlimited
+     */
+    public void setShellCommandTimeout(long shellCommandTimeout) {
+        if (shellCommandTimeout < 0) {
+            throw new IllegalArgumentException("Shell command timeout must be non-negative: " + shellCommandTimeout);
+        }
+        this.shellCommandTimeout = shellCommandTimeout;
+    }
+
+
+    /**
+     * Returns the default maximum number of characters buffered by {@code shell_exec} from each standard output
+     * stream of a command.
+     *
+     * @return the output limit, {@code 0} means unlimited
+     */
+    public int getShellOutputLimit() {
+        return shellOutputLimit;
+    }
+
+
+    /**
+     * Sets the default maximum number of characters buffered by {@code shell_exec} from each standard output stream
+     * of a command. The rest of the output is discarded. The default is
+     * {@link ShellCommandExecutor#DEFAULT_OUTPUT_LIMIT}.
+     *
+     * @param shellOutputLimit the output limit, {@code 0} means unlimited
+     */
+    public void setShellOutputLimit(int shellOutputLimit) {
+        if (shellOutputLimit < 0) {
+            throw new IllegalArgumentException("Shell output limit must be non-negative: " + shellOutputLimit);
+        }
+        this.shellOutputLimit = shellOutputLimit;
+    }
+
+
+    /**
+     * Returns the classes introspected in advance for the {@code static} method.
+     *
+     * @return the comma-separated class names
+     */
+    public String getPreloadedStaticClasses() {
+        String[] classNames = staticMethod.getPreloadedClasses();
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < classNames.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(classNames[i]);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Introspects the specified classes in advance for the {@code static} method, so templates don't pay for it on
+     * the first call. See {@link StaticMethod#preload(String[])}.
+     *
+     * @param classNames the class names separated by commas or whitespace, e.g. {@code java.lang.Math, ftldb.Utils}
+     */
+    public void setPreloadedStaticClasses(String classNames) {
+        StringTokenizer st = new StringTokenizer(classNames, ", \t\r\n");
+        String[] names = new String[st.countTokens()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = st.nextToken();
+        }
+        try {
+            staticMethod.preload(names);
+        } catch (TemplateModelException e) {
+            throw new RuntimeException("Unable to preload static classes: " + classNames, e);
+        }
+    }
+
+
+    /**
+     * Drops the state accumulated by processing templates: the cached results and the content of {@code shared_hash},
+     * which is replaced with an empty one. The settings, the connection pool and the template cache are kept. This
+     * method must not be called while templates are being processed.
+     */
+    public synchronized void resetState() {
+        resultCache = null;
+        registerSharedHash();
+    }
+
+
+    private void registerSharedHash() {
         try{
             setSharedVariable("shared_hash", new SharedHash());
         } catch(TemplateModelException e){
             throw new RuntimeException("Unable to register \"shared_hash\" variable", e);
         }
+    }
+
+
+    protected void registerUserDefinedVariablesAndMethods() {
+        registerSharedHash();
 
-        setSharedVariable("static", new StaticMethod());
+        setSharedVariable("static", staticMethod);
         setSharedVariable("template", new TemplateHelper.TemplateDirective());
         setSharedVariable("template_name", new TemplateHelper.TemplateNameMethod());
         setSharedVariable("template_dirname", new TemplateHelper.TemplateDirnameMethod());
         setSharedVariable("template_line", new TemplateHelper.TemplateLineMethod());
+        setSharedVariable("prefetch_templates", new TemplateHelper.PrefetchTemplatesMethod());
         setSharedVariable("new_connection", new Connector.NewConnectionMethod());
         setSharedVariable("default_connection", new Connector.GetDefaultConnectionMethod());
         setSharedVariable("set_default_connection", new Connector.SetDefaultConnectionDirective());
@@ -21,7 +21,10 @@ import freemarker.template.TemplateModelException;
 import freemarker.template.Version;
 import ftldb.ext.sql.*;
 
+import java.io.InputStream;
+import java.io.Reader;
 import java.sql.Array;
+import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Struct;
 
@@ -32,10 +35,22 @@ import java.sql.Struct;
  * <p>Registered wrappers are:
  * <ul>
  *     <li>{@link ArrayModel} - treats SQL collections ({@link Array}) as sequences
- *     <li>{@link ClobModel} - treats CLOBs ({@link Clob}) as strings
+ *     <li>{@link ClobModel} - treats CLOBs ({@link Clob}), including {@code NClob}s, as lazily read strings and
+ *     directives writing them
+ *     <li>{@link BlobModel} - treats BLOBs ({@link Blob}) as directives writing them as base64 or hex text
+ *     <li>{@link InputStreamModel} - treats binary streams ({@link InputStream}) as directives writing them as base64
+ *     or hex text
+ *     <li>{@link ReaderModel} - treats character streams ({@link Reader}) as strings and directives writing them
+ *     <li>{@link SQLXMLModel} - treats XML values ({@code java.sql.SQLXML}) as strings and directives writing them
  *     <li>{@link StructModel} - treats UDTs ({@link Struct}) as sequences of elements
  *     <li>{@link FetchedResultSetModel} - treats fetched result sets ({@link FetchedResultSet}) as 2-layer objects
  *     <li>{@link FetchedResultSetTransposedModel} - wraps transposed result sets
+ *     <li>{@link ColumnarResultSetModel} - treats column-oriented result sets ({@link ColumnarResultSet}) as 2-layer
+ *     objects
+ *     <li>{@link StreamingResultSetModel} - treats streaming result sets ({@link StreamingResultSet}) as one-pass
+ *     collections of rows
+ *     <li>{@link ParallelQueryResultsModel} - treats results of parallel queries ({@link ParallelQueryResults}) as
+ *     hashes of result sets
  * </ul>
  */
 public class DefaultObjectWrapper extends freemarker.template.DefaultObjectWrapper {
@@ -53,6 +68,18 @@ public class DefaultObjectWrapper extends freemarker.template.DefaultObjectWrapp
         if (obj instanceof Clob) {
             return new ClobModel((Clob) obj, this);
         }
+        if (obj instanceof Blob) {
+            return new BlobModel((Blob) obj, this);
+        }
+        if (obj instanceof InputStream) {
+            return new InputStreamModel((InputStream) obj, this);
+        }
+        if (obj instanceof Reader) {
+            return new ReaderModel((Reader) obj, this);
+        }
+        if (SQLXMLModel.isSQLXML(obj)) {
+            return new SQLXMLModel(obj, this);
+        }
         if (obj instanceof Struct) {
             return new StructModel((Struct) obj, this);
         }
@@ -62,6 +89,15 @@ public class DefaultObjectWrapper extends freemarker.template.DefaultObjectWrapp
         if (obj instanceof FetchedResultSetTransposed) {
             return new FetchedResultSetTransposedModel((FetchedResultSetTransposed) obj, this);
         }
+        if (obj instanceof ColumnarResultSet) {
+            return new ColumnarResultSetModel((ColumnarResultSet) obj, this);
+        }
+        if (obj instanceof StreamingResultSet) {
+            return new StreamingResultSetModel((StreamingResultSet) obj, this);
+        }
+        if (obj instanceof ParallelQueryResults) {
+            return new ParallelQueryResultsModel((ParallelQueryResults) obj, this);
+        }
         return super.handleUnknownType(obj);
     }
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb;
+
+
+import freemarker.cache.TemplateLoader;
+import java.io.IOException;
+
+
+/**
+ * A template loader that can load several templates at once before they are looked up, e.g. to save round trips to a
+ * database. It is used by the {@code prefetch_templates} FTL method (see
+ * {@link ftldb.ext.TemplateHelper.PrefetchTemplatesMethod}).
+ */
+public interface PrefetchingTemplateLoader extends TemplateLoader {
+
+
+    /**
+     * Loads the specified templates, so that subsequent lookups of them are served from memory.
+     *
+     * @param names the templates' absolute and normalized names
+     * @return the number of found templates
+     * @throws IOException if the templates cannot be loaded
+     */
+    int prefetch(String[] names) throws IOException;
+
+
+}
@@ -16,37 +16,77 @@
 package ftldb;
 
 
-import freemarker.template.SimpleHash;
-import freemarker.template.Template;
-import freemarker.template.TemplateException;
-import freemarker.template.TemplateModelException;
+import freemarker.template.*;
+import ftldb.ext.sql.ResourceRegistry;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 
 
 /**
  * This class contains convenience methods for processing templates within the previously set configuration.
+ *
+ * <p>Template arguments are put into the data model of each processing as a sequence named {@code template_args}, so
+ * several threads can process templates with different arguments at the same time. The arguments are either passed
+ * directly or set beforehand for the current thread by {@link #setArguments(String[])}.
  */
 public class TemplateProcessor {
 
 
+    // The template arguments set by the last setArguments() call in the current thread.
+    private static final ThreadLocal arguments = new ThreadLocal();
+
+
     /**
-     * Processes a template specified by its name.
+     * Processes a template specified by its name with the arguments set for the current thread.
      *
      * @param templateName the template's name
      * @param dest the output destination
      * @throws IOException if a file access error occurs
      * @throws TemplateException if a template processing error occurs
+     * @see #process(String, String[], Writer)
      */
     public static void process(String templateName, Writer dest) throws IOException, TemplateException {
-        process(getTemplate(templateName), dest);
+        process(templateName, (String[]) arguments.get(), dest);
     }
 
 
     /**
-     * Processes a template represented as a {@link Reader} stream.
+     * Processes a template specified by its name with the specified arguments. If the configuration has a result cache
+     * (see {@link DefaultConfiguration#setResultCacheSize(int)}) and the same template has already been processed with
+     * the same arguments and has not been modified since then, the cached result is written instead.
+     *
+     * @param templateName the template's name
+     * @param templateArgs the template's arguments (nullable)
+     * @param dest the output destination
+     * @throws IOException if a file access error occurs
+     * @throws TemplateException if a template processing error occurs
+     */
+    public static void process(String templateName, String[] templateArgs, Writer dest)
+            throws IOException, TemplateException {
+        Template template = getTemplate(templateName);
+        TemplateResultCache cache = getResultCache();
+
+        if (cache == null) {
+            process(template, templateArgs, dest);
+            return;
+        }
+
+        String result = cache.get(template, templateArgs);
+        if (result == null) {
+            StringWriter sw = new StringWriter();
+            process(template, templateArgs, sw);
+            result = sw.toString();
+            cache.put(template, templateArgs, result);
+        }
+        dest.write(result);
+    }
+
+
+    /**
+     * Processes a template represented as a {@link Reader} stream with the arguments set for the current thread.
      *
      * @param templateBody the template's source
      * @param dest the output destination
@@ -54,23 +94,39 @@ public class TemplateProcessor {
      * @throws TemplateException if a template processing error occurs
      */
     public static void process(Reader templateBody, Writer dest) throws IOException, TemplateException {
-        process(getTemplate(templateBody), dest);
+        process(templateBody, (String[]) arguments.get(), dest);
     }
 
 
     /**
-     * Adds the specified array to the current configuration as a sequence named {@code template_args}.
+     * Processes a template represented as a {@link Reader} stream with the specified arguments.
      *
-     * @param templateArgs an array of template arguments
+     * @param templateBody the template's source
+     * @param templateArgs the template's arguments (nullable)
+     * @param dest the output destination
+     * @throws IOException if a file access error occurs
+     * @throws TemplateException if a template processing error occurs
+     */
+    public static void process(Reader templateBody, String[] templateArgs, Writer dest)
+            throws IOException, TemplateException {
+        process(getTemplate(templateBody), templateArgs, dest);
+    }
+
+
+    /**
+     * Sets the arguments for templates subsequently processed in the current thread without explicit arguments. They
+     * are available in templates as a sequence named {@code template_args}.
+     *
+     * @param templateArgs an array of template arguments (nullable)
      * @throws TemplateModelException if a configuration error occurs
      */
     public static void setArguments(String[] templateArgs) throws TemplateModelException {
-        Configurator.getConfiguration().setSharedVariable("template_args", templateArgs);
+        arguments.set(templateArgs);
     }
 
 
     /**
-     * Processes a template represented as a {@link Template} instance.
+     * Processes a template represented as a {@link Template} instance with the arguments set for the current thread.
      *
      * @param template a template object
      * @param dest the output destination
@@ -78,8 +134,39 @@ public class TemplateProcessor {
      * @throws TemplateException if a template processing error occurs
      */
     protected static void process(Template template, Writer dest) throws IOException, TemplateException {
-        SimpleHash root = new SimpleHash(Configurator.getConfiguration().getObjectWrapper());
-        template.process(root, dest);
+        process(template, (String[]) arguments.get(), dest);
+    }
+
+
+    /**
+     * Processes a template represented as a {@link Template} instance with the specified arguments. Database resources
+     * acquired during processing are released when it finishes, see {@link ResourceRegistry}. What has been released is
+     * available via {@link ResourceRegistry#getLastClosed()}.
+     *
+     * @param template a template object
+     * @param templateArgs the template's arguments (nullable)
+     * @param dest the output destination
+     * @throws IOException if a file access error occurs
+     * @throws TemplateException if a template processing error occurs
+     */
+    protected static void process(Template template, String[] templateArgs, Writer dest)
+            throws IOException, TemplateException {
+        SimpleHash root = new SimpleHash(template.getObjectWrapper());
+        if (templateArgs != null) {
+            root.put("template_args", templateArgs);
+        }
+        ResourceRegistry resources = ResourceRegistry.open();
+        try {
+            template.process(root, dest);
+        } finally {
+            resources.close();
+        }
+    }
+
+
+    private static TemplateResultCache getResultCache() {
+        Configuration cfg = Configurator.getConfiguration();
+        return (cfg instanceof DefaultConfiguration) ? ((DefaultConfiguration) cfg).getResultCache() : null;
     }
 
 
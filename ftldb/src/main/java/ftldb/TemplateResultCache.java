@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb;
+
+
+import freemarker.template.Template;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * This class is a bounded LRU cache of template processing results. A result is keyed by the template name and its
+ * arguments, and is valid only for the {@link Template} instance it has been produced by. The configuration's template
+ * cache creates a new instance when it reloads a modified template, so the result becomes stale as soon as the
+ * modification is noticed, without checking the template source once more. Results can also expire after the
+ * specified time to live.
+ *
+ * <p>Therefore the cache works only if the template cache keeps templates: with
+ * {@link freemarker.cache.NullCacheStorage} every lookup creates a new instance, so no result is ever reused.
+ *
+ * <p>Only the processed template itself is checked, not those it includes or imports. If the template loader does not
+ * report reliable timestamps, the template is reloaded whenever its update delay expires, so its results are rarely
+ * reused; a stale result is replaced by the new one, though, so they do not pile up. Also keep in mind that a cached
+ * result does not reflect changes of the data the template reads from a database.
+ */
+public class TemplateResultCache {
+
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final LruMap results;
+    private long hitCount;
+    private long missCount;
+
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxSize the maximum number of cached results
+     * @param timeToLive the maximum age of a cached result in milliseconds, {@code 0} means unlimited
+     */
+    public TemplateResultCache(int maxSize, long timeToLive) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Result cache size must be positive: " + maxSize);
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Result cache time to live must be non-negative: " + timeToLive);
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.results = new LruMap(maxSize);
+    }
+
+
+    /**
+     * Returns the cached result of processing the specified template with the specified arguments.
+     *
+     * @param template the template
+     * @param templateArgs the template's arguments
+     * @return the cached result or {@code null} if it is missing, produced by another instance of the template or
+     * expired
+     */
+    public synchronized String get(Template template, String[] templateArgs) {
+        Key key = new Key(template.getName(), templateArgs);
+        Entry entry = (Entry) results.get(key);
+
+        if (entry != null && (entry.template != template
+                || timeToLive > 0 && System.currentTimeMillis() - entry.created > timeToLive)) {
+            results.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return entry.result;
+    }
+
+
+    /**
+     * Saves the result of processing the specified template with the specified arguments. It replaces the result of
+     * the same template's previous instance.
+     *
+     * @param template the template
+     * @param templateArgs the template's arguments
+     * @param result the template's output
+     */
+    public synchronized void put(Template template, String[] templateArgs, String result) {
+        results.put(new Key(template.getName(), templateArgs), new Entry(template, result));
+    }
+
+
+    /**
+     * Drops all the cached results. Counters are not reset.
+     */
+    public synchronized void clear() {
+        results.clear();
+    }
+
+
+    /**
+     * Returns the maximum number of cached results.
+     *
+     * @return the maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Returns the maximum age of a cached result.
+     *
+     * @return the time to live in milliseconds, {@code 0} means unlimited
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+
+    /**
+     * Returns the number of currently cached results.
+     *
+     * @return the cache size
+     */
+    public synchronized int getSize() {
+        return results.size();
+    }
+
+
+    /**
+     * Returns the number of requests served from the cache.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+
+    /**
+     * Returns the number of requests that caused a template to be processed.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+
+    /**
+     * Returns the cache statistics that are helpful for debugging.
+     *
+     * @return the size and counters
+     */
+    public synchronized String toString() {
+        return "TemplateResultCache(size=" + results.size() + "; maxSize=" + maxSize + "; timeToLive=" + timeToLive
+                + "; hits=" + hitCount + "; misses=" + missCount + ")";
+    }
+
+
+    private static final class Key {
+
+        private final String templateName;
+        private final String[] templateArgs;
+
+        private Key(String templateName, String[] templateArgs) {
+            this.templateName = templateName;
+            this.templateArgs = (templateArgs == null) ? new String[0] : (String[]) templateArgs.clone();
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return templateName.equals(k.templateName) && Arrays.equals(templateArgs, k.templateArgs);
+        }
+
+        public int hashCode() {
+            int h = templateName.hashCode();
+            for (int i = 0; i < templateArgs.length; i++) {
+                h = 31 * h + (templateArgs[i] == null ? 0 : templateArgs[i].hashCode());
+            }
+            return h;
+        }
+
+    }
+
+
+    private static final class LruMap extends LinkedHashMap {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > maxSize;
+        }
+
+    }
+
+
+    private static final class Entry {
+
+        private final Template template;
+        private final String result;
+        private final long created;
+
+        private Entry(Template template, String result) {
+            this.template = template;
+            this.result = result;
+            this.created = System.currentTimeMillis();
+        }
+
+    }
+
+
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb;
+
+
+import freemarker.cache.StatefulTemplateLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class is a {@link FileTemplateLoader} that watches the base directory for changes instead of checking the
+ * template files on every lookup. Found files (including missing ones) and their timestamps are cached until a change
+ * of the corresponding file or directory is reported by the file system, so lookups of unchanged templates do not
+ * access the file system at all. Set the configuration's {@code templateUpdateDelayMilliseconds} to {@code 0} to have
+ * changes picked up as soon as they are reported.
+ *
+ * <p>The loader requires Java 7 or higher, since it uses {@code java.nio.file.WatchService}. The service is accessed
+ * via reflection, so that the FTLDB jar still resolves in older database JVMs. The loader is meant for working with
+ * templates on a client, e.g. from the {@link CommandLine}. Keep in mind that some platforms poll for changes, so they
+ * may be reported with a delay of several seconds. The watching thread runs until {@link #close()} is called.
+ *
+ * <p>If the watcher fails, the cache is dropped and the loader falls back to checking the files on every lookup.
+ */
+public class WatchingFileTemplateLoader extends FileTemplateLoader implements StatefulTemplateLoader {
+
+
+    private final Object watchService;
+    private final Map watchedDirs = new HashMap();
+    private final Map sourceCache = new HashMap();
+    private long generation;
+    private boolean watching;
+
+
+    /**
+     * Creates a loader for the specified directory and starts watching it and its subdirectories.
+     *
+     * @param baseDir the base directory for loading templates
+     * @throws IOException if the directory is not accessible or cannot be watched
+     */
+    public WatchingFileTemplateLoader(File baseDir) throws IOException {
+        this(baseDir, false);
+    }
+
+
+    /**
+     * Creates a loader for the specified directory and starts watching it and its subdirectories.
+     *
+     * @param baseDir the base directory for loading templates
+     * @param disableCanonicalPathCheck if {@code true}, templates may be symbolic links to files outside the directory
+     * @throws IOException if the directory is not accessible or cannot be watched
+     */
+    public WatchingFileTemplateLoader(File baseDir, boolean disableCanonicalPathCheck) throws IOException {
+        super(baseDir, disableCanonicalPathCheck);
+        watchService = Nio.newWatchService();
+        try {
+            registerAll(this.baseDir);
+        } catch (IOException e) {
+            Nio.close(watchService);
+            throw e;
+        }
+        watching = true;
+
+        Thread t = new Thread(new Watcher(), "ftldb-template-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+
+    public Object findTemplateSource(String name) throws IOException {
+        if (!name.startsWith("@")) {
+            return super.findTemplateSource(name);
+        }
+
+        String path = new File(baseDir, name.substring(1).replace('/', File.separatorChar)).getPath();
+        long gen;
+        synchronized (this) {
+            CacheEntry cached = (CacheEntry) sourceCache.get(path);
+            if (cached != null) return cached.source;
+            gen = generation;
+        }
+
+        Object source = super.findTemplateSource(name);
+        long lastModified = (source == null) ? -1 : super.getLastModified(source);
+
+        synchronized (this) {
+            // skip caching if anything has changed in the meantime
+            if (watching && gen == generation) {
+                sourceCache.put(path, new CacheEntry(source, lastModified));
+            }
+        }
+        return source;
+    }
+
+
+    public long getLastModified(Object templateSource) {
+        if (templateSource instanceof File) {
+            synchronized (this) {
+                CacheEntry cached = (CacheEntry) sourceCache.get(((File) templateSource).getPath());
+                if (cached != null && cached.source != null) return cached.lastModified;
+            }
+        }
+        return super.getLastModified(templateSource);
+    }
+
+
+    /**
+     * Drops the cached files and timestamps. Watching is not affected.
+     */
+    public synchronized void resetState() {
+        sourceCache.clear();
+        generation++;
+    }
+
+
+    /**
+     * Stops watching the base directory. Subsequent lookups check the files every time.
+     */
+    public void close() {
+        synchronized (this) {
+            watching = false;
+            sourceCache.clear();
+            generation++;
+        }
+        Nio.close(watchService);
+    }
+
+
+    private void registerAll(File dir) throws IOException {
+        Object key = Nio.register(watchService, dir);
+        synchronized (this) {
+            watchedDirs.put(key, dir);
+        }
+
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (int i = 0; i < children.length; i++) {
+            if (children[i].isDirectory()) registerAll(children[i]);
+        }
+    }
+
+
+    private synchronized void invalidate(String path) {
+        String prefix = path + File.separator;
+        for (Iterator it = sourceCache.keySet().iterator(); it.hasNext(); ) {
+            String p = (String) it.next();
+            if (p.equals(path) || p.startsWith(prefix)) it.remove();
+        }
+        generation++;
+    }
+
+
+    private void processEvents(Object key) {
+        File dir;
+        synchronized (this) {
+            dir = (File) watchedDirs.get(key);
+        }
+
+        List events = Nio.pollEvents(key);
+        for (Iterator it = events.iterator(); it.hasNext(); ) {
+            Object event = it.next();
+            Object context = Nio.context(event);
+
+            if (dir == null || context == null) {
+                // events are lost
+                resetState();
+                continue;
+            }
+
+            File child = new File(dir, context.toString());
+            if (Nio.isCreate(event) && child.isDirectory()) {
+                // register before invalidating, so that files created in the meantime are not missed
+                try {
+                    registerAll(child);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+            }
+            invalidate(child.getPath());
+        }
+
+        if (!Nio.reset(key)) {
+            // the directory is deleted or not accessible anymore
+            synchronized (this) {
+                watchedDirs.remove(key);
+            }
+            if (dir != null) invalidate(dir.getPath());
+        }
+    }
+
+
+    private class Watcher implements Runnable {
+
+        public void run() {
+            try {
+                for (;;) {
+                    processEvents(Nio.take(watchService));
+                }
+            } catch (Exception e) {
+                // closed or failed, either way nothing is watched anymore
+                close();
+            }
+        }
+
+    }
+
+
+    private static final class CacheEntry {
+
+        private final Object source;
+        private final long lastModified;
+
+        private CacheEntry(Object source, long lastModified) {
+            this.source = source;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+
+    /**
+     * Reflective access to the {@code java.nio.file} watch API.
+     */
+    private static final class Nio {
+
+        private static Method getDefault;
+        private static Method newWatchService;
+        private static Method toPath;
+        private static Method register;
+        private static Object kinds;
+        private static Object entryCreate;
+        private static Method take;
+        private static Method close;
+        private static Method pollEvents;
+        private static Method reset;
+        private static Method kind;
+        private static Method context;
+
+        private static synchronized void init() throws IOException {
+            if (register != null) return;
+            try {
+                Class fileSystems = Class.forName("java.nio.file.FileSystems");
+                Class fileSystem = Class.forName("java.nio.file.FileSystem");
+                Class path = Class.forName("java.nio.file.Path");
+                Class service = Class.forName("java.nio.file.WatchService");
+                Class watchKey = Class.forName("java.nio.file.WatchKey");
+                Class watchEvent = Class.forName("java.nio.file.WatchEvent");
+                Class kind = Class.forName("java.nio.file.WatchEvent$Kind");
+                Class standardKinds = Class.forName("java.nio.file.StandardWatchEventKinds");
+
+                Nio.entryCreate = standardKinds.getField("ENTRY_CREATE").get(null);
+                Nio.kinds = Array.newInstance(kind, 3);
+                Array.set(Nio.kinds, 0, entryCreate);
+                Array.set(Nio.kinds, 1, standardKinds.getField("ENTRY_DELETE").get(null));
+                Array.set(Nio.kinds, 2, standardKinds.getField("ENTRY_MODIFY").get(null));
+
+                Nio.getDefault = fileSystems.getMethod("getDefault", null);
+                Nio.newWatchService = fileSystem.getMethod("newWatchService", null);
+                Nio.toPath = File.class.getMethod("toPath", null);
+                Nio.take = service.getMethod("take", null);
+                Nio.close = service.getMethod("close", null);
+                Nio.pollEvents = watchKey.getMethod("pollEvents", null);
+                Nio.reset = watchKey.getMethod("reset", null);
+                Nio.kind = watchEvent.getMethod("kind", null);
+                Nio.context = watchEvent.getMethod("context", null);
+                Nio.register = path.getMethod("register", new Class[]{service, Nio.kinds.getClass()});
+            } catch (Exception e) {
+                throw (IOException) new IOException("WatchService is not supported by this JVM").initCause(e);
+            }
+        }
+
+        private static Object invoke(Method m, Object target, Object[] args) throws Exception {
+            try {
+                return m.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw e;
+            }
+        }
+
+        private static Object newWatchService() throws IOException {
+            init();
+            try {
+                return invoke(newWatchService, invoke(getDefault, null, null), null);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw (IOException) new IOException("Unable to create WatchService").initCause(e);
+            }
+        }
+
+        private static Object register(Object watchService, File dir) throws IOException {
+            try {
+                return invoke(register, invoke(toPath, dir, null), new Object[]{watchService, kinds});
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw (IOException) new IOException("Unable to watch directory " + dir).initCause(e);
+            }
+        }
+
+        private static Object take(Object watchService) throws Exception {
+            return invoke(take, watchService, null);
+        }
+
+        private static void close(Object watchService) {
+            try {
+                invoke(close, watchService, null);
+            } catch (Exception ignored) {
+            }
+        }
+
+        private static List pollEvents(Object key) {
+            try {
+                return (List) invoke(pollEvents, key, null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static boolean reset(Object key) {
+            try {
+                return ((Boolean) invoke(reset, key, null)).booleanValue();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static boolean isCreate(Object event) {
+            try {
+                return invoke(kind, event, null) == entryCreate;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // the changed file's name relative to the watched directory, or null on overflow
+        private static Object context(Object event) {
+            try {
+                return invoke(context, event, null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+
+}
@@ -16,7 +16,13 @@
 package ftldb.ext;
 
 
+import freemarker.core.Environment;
+import freemarker.template.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 
@@ -24,6 +30,12 @@ import java.util.Map;
  * A helper class for storing FTL variables and passing them between different templates. Can be accessed in FTL as
  * a shared variable named {@code shared_hash}.
  *
+ * <p>The hash is shared by all the templates processed with the configuration, possibly at the same time, so it is
+ * thread-safe. Keys are spread over {@link #STRIPES} independently locked stripes, which lets concurrent templates
+ * work with different keys without waiting for each other. Besides plain puts, it offers atomic operations: putting
+ * a value if the key is absent, counters and memoization, when a value is computed once and shared by all the
+ * templates. An entry may be given a time to live in milliseconds, after which it is considered absent.
+ *
  * <p>Usage examples in FTL:
  * <pre>
  * {@code
@@ -34,13 +46,49 @@ import java.util.Map;
  * b = ${map["b"]}
  * <#assign void = shared_hash.remove("b")/>
  * <#assign void = shared_hash.clear()/>
+ *
+ * <#assign void = shared_hash.put("c", "expires in a minute", 60000)/>
+ * <#assign first = shared_hash.putIfAbsent("d", "first")!"first"/>
+ * template #${shared_hash.increment("count")}
+ * <@shared_hash.memo key = "header" ttl = 60000>expensive output rendered once a minute</@shared_hash.memo>
  * }
  * </pre>
  */
 public class SharedHash {
 
 
-    private final Map storage = new HashMap();
+    /**
+     * The number of independently locked parts of the hash.
+     */
+    public static final int STRIPES = 16;
+
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final MemoDirective memo = new MemoDirective();
+
+
+    public SharedHash() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+
+    private Stripe stripeFor(String key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        // spread the high bits, since strings often differ only in their last characters
+        h ^= (h >>> 16);
+        h ^= (h >>> 8);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+
+    private static long expiryTime(long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time to live must be non-negative: " + timeToLive);
+        }
+        return (timeToLive == 0) ? 0 : System.currentTimeMillis() + timeToLive;
+    }
 
 
     /**
@@ -50,7 +98,57 @@ public class SharedHash {
      * @param value the key value
      */
     public void put(String key, Object value) {
-        storage.put(key, value);
+        put(key, value, 0);
+    }
+
+
+    /**
+     * Saves the specified key value into the storage for the specified time.
+     *
+     * @param key the key name
+     * @param value the key value
+     * @param timeToLive the time in milliseconds after which the key is removed, {@code 0} means forever
+     */
+    public void put(String key, Object value, long timeToLive) {
+        Entry entry = new Entry(value, expiryTime(timeToLive));
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.put(key, entry);
+        }
+    }
+
+
+    /**
+     * Saves the specified key value into the storage, unless the key is already set. The check and the put are done
+     * atomically, so only one of concurrent templates succeeds.
+     *
+     * @param key the key name
+     * @param value the key value
+     * @return the previously set value or {@code null} if the specified value has been saved
+     */
+    public Object putIfAbsent(String key, Object value) {
+        return putIfAbsent(key, value, 0);
+    }
+
+
+    /**
+     * Saves the specified key value into the storage for the specified time, unless the key is already set. The check
+     * and the put are done atomically, so only one of concurrent templates succeeds.
+     *
+     * @param key the key name
+     * @param value the key value
+     * @param timeToLive the time in milliseconds after which the key is removed, {@code 0} means forever
+     * @return the previously set value or {@code null} if the specified value has been saved
+     */
+    public Object putIfAbsent(String key, Object value, long timeToLive) {
+        Entry entry = new Entry(value, expiryTime(timeToLive));
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            Entry e = stripe.get(key);
+            if (e != null) return e.value;
+            stripe.put(key, entry);
+            return null;
+        }
     }
 
 
@@ -61,17 +159,169 @@ public class SharedHash {
      * @return stored key value
      */
     public Object get(String key) {
-        return storage.get(key);
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            Entry e = stripe.get(key);
+            return (e == null) ? null : e.value;
+        }
     }
 
 
     /**
-     * Returns the whole storage as a {@link Map}.
+     * Returns a snapshot of the whole storage as a {@link Map}. Changes of the map do not affect the storage.
      *
-     * @return the inner storage
+     * @return a copy of the inner storage
      */
     public Map get() {
-        return storage;
+        Map ret = new HashMap();
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].copyTo(ret);
+            }
+        }
+        return ret;
+    }
+
+
+    /**
+     * Returns the number of keys in the storage.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        int ret = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                ret += stripes[i].size();
+            }
+        }
+        return ret;
+    }
+
+
+    /**
+     * Atomically adds 1 to the value of the specified key. An absent key is considered 0.
+     *
+     * @param key the key name
+     * @return the new value
+     */
+    public long increment(String key) {
+        return add(key, 1);
+    }
+
+
+    /**
+     * Atomically adds the specified number to the value of the specified key. An absent key is considered 0. The
+     * time to live of the key is kept.
+     *
+     * @param key the key name
+     * @param delta the number to be added
+     * @return the new value
+     */
+    public long add(String key, long delta) {
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            Entry e = stripe.get(key);
+            long value = delta;
+            if (e != null && e.value != null) {
+                if (!(e.value instanceof Number)) {
+                    throw new IllegalArgumentException("Value of key \"" + key + "\" is not a number: "
+                            + e.value.getClass().getName());
+                }
+                value += ((Number) e.value).longValue();
+            }
+            stripe.put(key, new Entry(new Long(value), (e == null) ? 0 : e.expires));
+            return value;
+        }
+    }
+
+
+    /**
+     * Returns the value of the specified key or, if the key is not set, computes it with the specified factory and
+     * saves forever. See {@link #computeIfAbsent(String, long, Factory)}.
+     *
+     * @param key the key name
+     * @param factory the factory computing the value
+     * @return the existing or computed value
+     * @throws Exception if the computation fails
+     */
+    public Object computeIfAbsent(String key, Factory factory) throws Exception {
+        return computeIfAbsent(key, 0, factory);
+    }
+
+
+    /**
+     * Returns the value of the specified key or, if the key is not set, computes it with the specified factory and
+     * saves. Concurrent callers with the same key wait for the first one to compute the value instead of computing it
+     * again. If the computation fails, the key stays absent and one of the waiting callers tries again.
+     *
+     * @param key the key name
+     * @param timeToLive the time in milliseconds after which the computed value is removed, {@code 0} means forever
+     * @param factory the factory computing the value
+     * @return the existing or computed value
+     * @throws Exception if the computation fails
+     */
+    public Object computeIfAbsent(String key, long timeToLive, Factory factory) throws Exception {
+        expiryTime(timeToLive);
+        Stripe stripe = stripeFor(key);
+
+        while (true) {
+            Pending pending;
+            boolean owner;
+            synchronized (stripe) {
+                Entry e = stripe.getEntry(key);
+                if (e != null && !(e.value instanceof Pending)) {
+                    return e.value;
+                }
+                if (e == null) {
+                    pending = new Pending();
+                    stripe.put(key, new Entry(pending, 0));
+                    owner = true;
+                } else {
+                    pending = (Pending) e.value;
+                    if (pending.owner == Thread.currentThread()) {
+                        throw new IllegalStateException("Recursive computation of key \"" + key + "\"");
+                    }
+                    owner = false;
+                }
+            }
+
+            if (!owner) {
+                Object value = pending.await();
+                if (value != Pending.FAILED) return value;
+                continue;
+            }
+
+            Object value = Pending.FAILED;
+            try {
+                value = factory.create();
+                return value;
+            } finally {
+                synchronized (stripe) {
+                    Entry e = stripe.getEntry(key);
+                    // the key may have been overwritten or removed in the meantime
+                    if (e != null && e.value == pending) {
+                        if (value == Pending.FAILED) {
+                            stripe.remove(key);
+                        } else {
+                            stripe.put(key, new Entry(value, expiryTime(timeToLive)));
+                        }
+                    }
+                }
+                pending.complete(value);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the directive that renders its body once and then outputs the saved result, see
+     * {@link MemoDirective}. Can be accessed in FTL as {@code shared_hash.memo}.
+     *
+     * @return the memoizing directive
+     */
+    public MemoDirective getMemo() {
+        return memo;
     }
 
 
@@ -81,7 +331,10 @@ public class SharedHash {
      * @param key the key name
      */
     public void remove(String key) {
-        storage.remove(key);
+        Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.remove(key);
+        }
     }
 
 
@@ -89,8 +342,224 @@ public class SharedHash {
      * Cleans up the storage.
      */
     public void clear() {
-        storage.clear();
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].clear();
+            }
+        }
+    }
+
+
+    /**
+     * Computes a value for {@link SharedHash#computeIfAbsent(String, long, Factory)}.
+     */
+    public interface Factory {
+
+        /**
+         * Computes the value.
+         *
+         * @return the value (nullable)
+         * @throws Exception if the computation fails
+         */
+        Object create() throws Exception;
+
+    }
+
+
+    /**
+     * This class implements a directive that renders its body once, saves the output as a string under the specified
+     * key and outputs it. Subsequent calls with the same key output the saved string without rendering the body,
+     * until its time to live expires. Concurrent templates wait for the first one to render the body.
+     *
+     * <p>Directive parameters:
+     * <pre>
+     *     {@code key} - the key name
+     *     {@code ttl} - the time in milliseconds after which the output is rendered again (optional)
+     * </pre>
+     *
+     * <p>Usage example in FTL:
+     * <pre>
+     * {@code
+     * <@shared_hash.memo key = "types:" + schema ttl = 600000>
+     *   <#list conn.query("select type_name from all_types where owner = :1", [schema]) as t>${t.TYPE_NAME} </#list>
+     * </@shared_hash.memo>
+     * }
+     * </pre>
+     */
+    public class MemoDirective implements TemplateDirectiveModel {
+
+        private static final String PARAM_NAME_KEY = "key";
+        private static final String PARAM_NAME_TTL = "ttl";
+
+        private MemoDirective() {
+        }
+
+        public void execute(Environment env, Map params, TemplateModel[] loopVars, final TemplateDirectiveBody body)
+                throws TemplateException, IOException {
+            if (body == null) {
+                throw new TemplateModelException("Wrong usage: body is required");
+            }
+            if (loopVars.length != 0) {
+                throw new TemplateModelException("Wrong usage: loop variables are not allowed");
+            }
+
+            String key = null;
+            long timeToLive = 0;
+
+            for (Iterator it = params.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry param = (Map.Entry) it.next();
+                Object value = param.getValue();
+
+                if (PARAM_NAME_KEY.equals(param.getKey())) {
+                    if (!(value instanceof TemplateScalarModel)) {
+                        throw new TemplateModelException("Illegal type of parameter \"" + PARAM_NAME_KEY
+                                + "\": expected string, got " + value.getClass().getName());
+                    }
+                    key = ((TemplateScalarModel) value).getAsString();
+                } else if (PARAM_NAME_TTL.equals(param.getKey())) {
+                    if (!(value instanceof TemplateNumberModel)) {
+                        throw new TemplateModelException("Illegal type of parameter \"" + PARAM_NAME_TTL
+                                + "\": expected number, got " + value.getClass().getName());
+                    }
+                    timeToLive = ((TemplateNumberModel) value).getAsNumber().longValue();
+                    if (timeToLive < 0) {
+                        throw new TemplateModelException("Illegal value of parameter \"" + PARAM_NAME_TTL
+                                + "\": expected non-negative number, got " + timeToLive);
+                    }
+                } else {
+                    throw new TemplateModelException("Wrong parameter name: expected \"" + PARAM_NAME_KEY
+                            + "\" or \"" + PARAM_NAME_TTL + "\", got \"" + param.getKey() + "\"");
+                }
+            }
+
+            if (key == null) {
+                throw new TemplateModelException("Wrong usage: parameter \"" + PARAM_NAME_KEY + "\" is not specified");
+            }
+
+            Object output;
+            try {
+                output = computeIfAbsent(key, timeToLive, new Factory() {
+                    public Object create() throws Exception {
+                        StringWriter sw = new StringWriter();
+                        body.render(sw);
+                        return sw.toString();
+                    }
+                });
+            } catch (TemplateException e) {
+                throw e;
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new TemplateModelException(e.getMessage(), e);
+            }
+
+            env.getOut().write(String.valueOf(output));
+        }
+
+    }
+
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long expires;
+
+        private Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+    }
+
+
+    // A value being computed by the owner thread, which other threads wait for.
+    private static final class Pending {
+
+        private static final Object FAILED = new Object();
+
+        private final Thread owner = Thread.currentThread();
+        private boolean done;
+        private Object value;
+
+        private synchronized void complete(Object value) {
+            this.value = value;
+            done = true;
+            notifyAll();
+        }
+
+        private synchronized Object await() throws InterruptedException {
+            while (!done) wait();
+            return value;
+        }
+
+    }
+
+
+    // A stripe of the hash. Expired entries are removed when they are accessed and, from time to time, on puts.
+    private static final class Stripe {
+
+        private static final int SWEEP_INTERVAL = 256;
+
+        private final HashMap entries = new HashMap();
+        private int putCount;
+
+        // returns the live entry, pending computations are considered absent
+        private Entry get(String key) {
+            Entry e = getEntry(key);
+            return (e == null || e.value instanceof Pending) ? null : e;
+        }
+
+        private Entry getEntry(String key) {
+            Entry e = (Entry) entries.get(key);
+            if (e != null && e.expires != 0 && e.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return e;
+        }
+
+        private void put(String key, Entry e) {
+            entries.put(key, e);
+            if (++putCount % SWEEP_INTERVAL == 0) {
+                sweep();
+            }
+        }
+
+        private void remove(String key) {
+            entries.remove(key);
+        }
+
+        private void clear() {
+            entries.clear();
+        }
+
+        private void sweep() {
+            long now = System.currentTimeMillis();
+            for (Iterator it = entries.values().iterator(); it.hasNext(); ) {
+                Entry e = (Entry) it.next();
+                if (e.expires != 0 && e.expires <= now) it.remove();
+            }
+        }
+
+        private int size() {
+            sweep();
+            int ret = 0;
+            for (Iterator it = entries.values().iterator(); it.hasNext(); ) {
+                if (!(((Entry) it.next()).value instanceof Pending)) ret++;
+            }
+            return ret;
+        }
+
+        private void copyTo(Map map) {
+            sweep();
+            for (Iterator it = entries.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry me = (Map.Entry) it.next();
+                Entry e = (Entry) me.getValue();
+                if (!(e.value instanceof Pending)) map.put(me.getKey(), e.value);
+            }
+        }
+
     }
 
 
-}
\ No newline at end of file
+}
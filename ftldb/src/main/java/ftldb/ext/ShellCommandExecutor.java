@@ -16,14 +16,19 @@
 package ftldb.ext;
 
 
+import freemarker.core.Environment;
 import freemarker.template.*;
+import ftldb.Configurator;
+import ftldb.DefaultConfiguration;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -31,41 +36,107 @@ import java.util.Map;
 /**
  * This class is a shell command executor. It contains private methods for executing shell commands and a public static
  * class for FTL.
+ *
+ * <p>The standard output streams of commands are read by a shared pool of {@link #READER_THREADS} daemon threads, so
+ * running commands in a loop does not start new threads. A command is killed if it does not finish within the
+ * timeout, and the buffered output of each stream is limited to the specified number of characters: the rest is read
+ * and discarded, so the command is never blocked by a full pipe. The standard input of a command is closed right after
+ * it is started.
+ *
+ * <p>If all the pooled threads are busy, e.g. many commands run at once or killed commands have left child processes
+ * holding their output streams open, the streams are read by dedicated threads instead, so a command never waits for
+ * a reader. A thread reading the streams of a killed command stays busy until its children exit.
  */
 public class ShellCommandExecutor {
 
 
+    /**
+     * The default maximum number of characters buffered from each standard output stream of a command.
+     */
+    public static final int DEFAULT_OUTPUT_LIMIT = 1048576;
+
+
+    /**
+     * The number of pooled threads reading output streams of commands. Each running command takes two of them. If none
+     * is available, a dedicated thread is started.
+     */
+    public static final int READER_THREADS = 16;
+
+
+    // The maximum time to wait for the output streams to be closed after a command is killed.
+    private static final long KILL_WAIT_TIME = 1000;
+
+
+    private static WorkerPool readers;
+
+
     /**
      * This class implements an FTL method named {@code shell_exec} that executes the given shell command and returns
-     * the result fetched from the standard system output streams. Returns a map with two keys: "stdout" and "stderr",
-     * each containing corresponding output stream as an array of lines. The default encoding is UTF8.
+     * the result fetched from the standard system output streams. Returns a map with the keys "stdout" and "stderr",
+     * each containing corresponding output stream as an array of lines, "exit_code" containing the exit code of the
+     * command, and "truncated" telling whether some output has been discarded because of the output limit. The
+     * default encoding is UTF8.
      *
-     * <p>Method definition: {@code Map<String, String[]> shell_exec(String command)}
+     * <p>The default timeout and output limit are set in the configuration, see
+     * {@link DefaultConfiguration#setShellCommandTimeout(long)} and
+     * {@link DefaultConfiguration#setShellOutputLimit(int)}. If the command does not finish in time, it is killed and
+     * the method fails.
+     *
+     * <p>Method definition: {@code Map<String, Object> shell_exec(String command)}
      * <p>Method arguments:
      * <pre>
      *     {@code command} - the command to be executed
      * </pre>
      *
-     * <p>Method overloading: {@code Map<String, String[]> shell_exec(String command, String encoding)}
+     * <p>Method overloading: {@code Map<String, Object> shell_exec(String command, String encoding)}
      * <p>Method arguments:
      * <pre>
      *     {@code command} - the command to be executed
      *     {@code encoding} - the encoding of standard system streams
      * </pre>
      *
-     * <p>Method overloading: {@code Map<String, String[]> shell_exec(String[] command_array)}
+     * <p>Method overloading: {@code Map<String, Object> shell_exec(String command, Map<String, Object> options)}
+     * <p>Method arguments:
+     * <pre>
+     *     {@code command} - the command to be executed
+     *     {@code options} - a hash with any of the keys:
+     *         "encoding" - the encoding of standard system streams,
+     *         "timeout" - the maximum execution time in milliseconds, {@code 0} means unlimited,
+     *         "output_limit" - the maximum number of characters buffered from each stream, {@code 0} means unlimited
+     * </pre>
+     *
+     * <p>Method overloading: {@code Map<String, Object> shell_exec(String[] command_array)}
      * <p>Method arguments:
      * <pre>
      *     {@code command_array} - the command to be executed passed as an array
      * </pre>
      *
-     * <p>Method overloading: {@code Map<String, String[]> shell_exec(String[] command_array, String encoding)}
+     * <p>Method overloading: {@code Map<String, Object> shell_exec(String[] command_array, String encoding)}
      * <p>Method arguments:
      * <pre>
      *     {@code command_array} - the command to be executed passed as an array
      *     {@code encoding} - the encoding of standard system streams
      * </pre>
      *
+     * <p>Method overloading:
+     * {@code Map<String, Object> shell_exec(String[] command_array, Map<String, Object> options)}
+     * <p>Method arguments:
+     * <pre>
+     *     {@code command_array} - the command to be executed passed as an array
+     *     {@code options} - a hash of options, see above
+     * </pre>
+     *
+     * <p>The same object is also a directive that writes the standard output of the command directly to the template
+     * output without buffering it. The standard error stream is read and discarded. The output limit does not apply.
+     * If the command exits with a non-zero code, the directive fails after the output has been written.
+     *
+     * <p>Directive parameters:
+     * <pre>
+     *     {@code command} - the command to be executed as a string or an array
+     *     {@code encoding} - the encoding of standard system streams (optional)
+     *     {@code timeout} - the maximum execution time in milliseconds (optional)
+     * </pre>
+     *
      * <p>Usage examples in FTL:
      * <pre>
      * {@code
@@ -83,10 +154,19 @@ public class ShellCommandExecutor {
      * <#list lines as line>
      * ${line}
      * </#list>
+     *
+     * <#assign res = shell_exec("make -n", {"timeout" : 60000, "output_limit" : 10000})/>
+     * <#if res.exit_code != 0 || res.truncated>...</#if>
+     *
+     * <@shell_exec command = ["git", "log", "-1", "--format=%H"] timeout = 5000/>
      * }
      * </pre>
      */
-    public static class ShellExecMethod implements TemplateMethodModelEx {
+    public static class ShellExecMethod implements TemplateMethodModelEx, TemplateDirectiveModel {
+
+        private static final String PARAM_NAME_COMMAND = "command";
+        private static final String PARAM_NAME_ENCODING = "encoding";
+        private static final String PARAM_NAME_TIMEOUT = "timeout";
 
         public Object exec(List args) throws TemplateModelException {
 
@@ -94,112 +174,318 @@ public class ShellCommandExecutor {
                 throw new TemplateModelException("Wrong number of arguments: expected 1 or 2, got " + args.size());
             }
 
-            Object cmd = args.get(0);
-            String[] cmdArray;
-
-            if (cmd instanceof TemplateScalarModel) {
-                cmdArray = new String[]{((TemplateScalarModel) cmd).getAsString()};
-            } else if (cmd instanceof TemplateSequenceModel) {
-                TemplateSequenceModel cmdSeq = (TemplateSequenceModel) cmd;
-                cmdArray = new String[cmdSeq.size()];
-                for (int i = 0; i < cmdSeq.size(); i++) {
-                    Object o = cmdSeq.get(i);
-                    if (!(o instanceof TemplateScalarModel)) {
-                        throw new TemplateModelException("Illegal type of element #" + (i + 1)
-                                + " of sequence argument #1: expected string, got " + o.getClass().getName());
+            String[] cmdArray = getCommand(args.get(0), "argument #1");
+
+            String encoding = "UTF8";
+            long timeout = getDefaultTimeout();
+            int outputLimit = getDefaultOutputLimit();
+
+            if (args.size() == 2) {
+                Object o = args.get(1);
+                if (o instanceof TemplateScalarModel) {
+                    encoding = ((TemplateScalarModel) o).getAsString();
+                } else if (o instanceof TemplateHashModel) {
+                    TemplateHashModel options = (TemplateHashModel) o;
+                    if (options.get("encoding") != null) {
+                        encoding = getString(options.get("encoding"), "option \"encoding\"");
+                    }
+                    if (options.get("timeout") != null) {
+                        timeout = getNonNegativeNumber(options.get("timeout"), "option \"timeout\"");
                     }
-                    cmdArray[i] = ((TemplateScalarModel) o).getAsString();
+                    if (options.get("output_limit") != null) {
+                        outputLimit = (int) getNonNegativeNumber(options.get("output_limit"),
+                                "option \"output_limit\"");
+                    }
+                } else {
+                    throw new TemplateModelException("Illegal type of argument #2: "
+                            + "expected string or hash, got " + o.getClass().getName());
                 }
-            } else {
-                throw new TemplateModelException("Illegal type of argument #1: "
-                        + "expected string or sequence, got " + args.get(0).getClass().getName());
             }
 
-            String encoding;
+            try {
+                return executeCommand(cmdArray, encoding, timeout, outputLimit, null);
+            } catch (Exception e) {
+                throw new TemplateModelException("Shell command execution failed", e);
+            }
+
+        }
 
-            if (args.size() < 2) {
-                encoding = "UTF8";
-            } else {
-                if (args.get(1) instanceof TemplateScalarModel) {
-                    encoding = ((TemplateScalarModel) args.get(1)).getAsString();
+        public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+                throws TemplateException, IOException {
+
+            if (body != null) {
+                throw new TemplateModelException("Wrong usage: body is not allowed");
+            }
+            if (loopVars.length != 0) {
+                throw new TemplateModelException("Wrong usage: loop variables are not allowed");
+            }
+
+            String[] cmdArray = null;
+            String encoding = "UTF8";
+            long timeout = getDefaultTimeout();
+
+            for (Iterator it = params.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry param = (Map.Entry) it.next();
+                String name = (String) param.getKey();
+                TemplateModel value = (TemplateModel) param.getValue();
+                if (PARAM_NAME_COMMAND.equals(name)) {
+                    cmdArray = getCommand(value, "parameter \"" + PARAM_NAME_COMMAND + "\"");
+                } else if (PARAM_NAME_ENCODING.equals(name)) {
+                    encoding = getString(value, "parameter \"" + PARAM_NAME_ENCODING + "\"");
+                } else if (PARAM_NAME_TIMEOUT.equals(name)) {
+                    timeout = getNonNegativeNumber(value, "parameter \"" + PARAM_NAME_TIMEOUT + "\"");
                 } else {
-                    throw new TemplateModelException("Illegal type of argument #2: "
-                            + "expected string, got " + args.get(0).getClass().getName());
+                    throw new TemplateModelException("Wrong parameter name: expected \"" + PARAM_NAME_COMMAND
+                            + "\", \"" + PARAM_NAME_ENCODING + "\" or \"" + PARAM_NAME_TIMEOUT + "\", got \"" + name
+                            + "\"");
                 }
             }
 
+            if (cmdArray == null) {
+                throw new TemplateModelException("Wrong usage: parameter \"" + PARAM_NAME_COMMAND
+                        + "\" is not specified");
+            }
+
+            int exitCode;
             try {
-                return executeCommand(cmdArray, encoding);
+                exitCode = ((Integer) executeCommand(cmdArray, encoding, timeout, 0, env.getOut()).get("exit_code"))
+                        .intValue();
             } catch (Exception e) {
                 throw new TemplateModelException("Shell command execution failed", e);
             }
+            if (exitCode != 0) {
+                throw new TemplateModelException("Shell command failed with exit code " + exitCode);
+            }
+
+        }
+
+    }
+
+
+    private static String[] getCommand(Object cmd, String what) throws TemplateModelException {
+        if (cmd instanceof TemplateScalarModel) {
+            return new String[]{((TemplateScalarModel) cmd).getAsString()};
+        }
+        if (cmd instanceof TemplateSequenceModel) {
+            TemplateSequenceModel cmdSeq = (TemplateSequenceModel) cmd;
+            String[] cmdArray = new String[cmdSeq.size()];
+            for (int i = 0; i < cmdSeq.size(); i++) {
+                Object o = cmdSeq.get(i);
+                if (!(o instanceof TemplateScalarModel)) {
+                    throw new TemplateModelException("Illegal type of element #" + (i + 1)
+                            + " of sequence " + what + ": expected string, got " + o.getClass().getName());
+                }
+                cmdArray[i] = ((TemplateScalarModel) o).getAsString();
+            }
+            return cmdArray;
+        }
+        throw new TemplateModelException("Illegal type of " + what + ": "
+                + "expected string or sequence, got " + cmd.getClass().getName());
+    }
+
+
+    private static String getString(Object o, String what) throws TemplateModelException {
+        if (!(o instanceof TemplateScalarModel)) {
+            throw new TemplateModelException("Illegal type of " + what + ": "
+                    + "expected string, got " + o.getClass().getName());
+        }
+        return ((TemplateScalarModel) o).getAsString();
+    }
+
 
+    private static long getNonNegativeNumber(Object o, String what) throws TemplateModelException {
+        if (!(o instanceof TemplateNumberModel)) {
+            throw new TemplateModelException("Illegal type of " + what + ": "
+                    + "expected number, got " + o.getClass().getName());
         }
+        long n = ((TemplateNumberModel) o).getAsNumber().longValue();
+        if (n < 0) {
+            throw new TemplateModelException("Illegal value of " + what + ": expected non-negative number, got " + n);
+        }
+        return n;
+    }
 
+
+    private static long getDefaultTimeout() {
+        Configuration cfg = Configurator.getConfiguration();
+        return (cfg instanceof DefaultConfiguration) ? ((DefaultConfiguration) cfg).getShellCommandTimeout() : 0;
     }
 
 
-    private static Map executeCommand(String[] cmdArray, String encoding) throws Exception {
+    private static int getDefaultOutputLimit() {
+        Configuration cfg = Configurator.getConfiguration();
+        return (cfg instanceof DefaultConfiguration)
+                ? ((DefaultConfiguration) cfg).getShellOutputLimit()
+                : DEFAULT_OUTPUT_LIMIT;
+    }
+
+
+    private static synchronized WorkerPool getReaders() {
+        if (readers == null) {
+            readers = new WorkerPool("ftldb-shell", READER_THREADS);
+        }
+        return readers;
+    }
 
-        List stdoutLines = new ArrayList();
-        Exception[] stdoutEx = new Exception[1];
-        List stderrLines = new ArrayList();
-        Exception[] stderrEx = new Exception[1];
 
-        Map result = new HashMap(2, 1);
+    private static Map executeCommand(String[] cmdArray, String encoding, long timeout, int outputLimit, Writer out)
+            throws Exception {
 
         Process p = (cmdArray.length == 1)
                 ? Runtime.getRuntime().exec(cmdArray[0])
                 : Runtime.getRuntime().exec(cmdArray);
 
-        Thread stdoutT = readStandardStream(p.getInputStream(), encoding, stdoutLines, stdoutEx);
-        Thread stderrT = readStandardStream(p.getErrorStream(), encoding, stderrLines, stderrEx);
+        StreamReader stdout;
+        StreamReader stderr;
+        WorkerPool.Task stdoutT;
+        WorkerPool.Task stderrT;
+
+        try {
+            p.getOutputStream().close();
+            stdout = new StreamReader(p.getInputStream(), encoding, outputLimit, out, false);
+            // nobody gets the errors when the output is written directly
+            stderr = new StreamReader(p.getErrorStream(), encoding, outputLimit, null, out != null);
+            stdoutT = getReaders().execute(stdout);
+            stderrT = getReaders().execute(stderr);
+        } catch (Exception e) {
+            p.destroy();
+            throw e;
+        }
 
-        p.waitFor();
-        stdoutT.join();
-        stderrT.join();
+        long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+
+        if (!(await(stdoutT, deadline) && await(stderrT, deadline) && waitFor(p, deadline))) {
+            // the output must not be written after the method returns
+            stdout.cancel();
+            p.destroy();
+            // child processes of the command may keep the streams open, so don't wait for them too long
+            long killDeadline = System.currentTimeMillis() + KILL_WAIT_TIME;
+            await(stdoutT, killDeadline);
+            await(stderrT, killDeadline);
+            throw new IOException("Shell command timed out after " + timeout + " ms and has been killed");
+        }
 
-        if (stdoutEx[0] != null) throw stdoutEx[0];
-        if (stderrEx[0] != null) throw stderrEx[0];
+        stdoutT.get();
+        stderrT.get();
 
-        result.put("stdout", stdoutLines.toArray(new String[stdoutLines.size()]));
-        result.put("stderr", stderrLines.toArray(new String[stderrLines.size()]));
+        Map result = new HashMap(8);
+        result.put("stdout", stdout.getLines());
+        result.put("stderr", stderr.getLines());
+        result.put("exit_code", new Integer(p.exitValue()));
+        result.put("truncated", Boolean.valueOf(stdout.isTruncated() || stderr.isTruncated()));
 
         return result;
     }
 
 
-    private static Thread readStandardStream(final InputStream stream, final String encoding, final List messages,
-                                             final Exception[] ex) {
-        Thread ret = new Thread(
-                new Runnable() {
-                    public void run() {
-                        try {
-                            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, encoding));
-                            String line;
-                            try {
-                                while ((line = reader.readLine()) != null) {
-                                    messages.add(line);
-                                }
-                            } catch (IOException e) {
-                                try {
-                                    reader.close();
-                                } catch (IOException e2) {
-                                }
-                                ex[0] = e;
-                            }
-
-                        } catch (Exception e) {
-                            ex[0] = e;
+    private static boolean await(WorkerPool.Task task, long deadline) throws InterruptedException {
+        if (deadline == 0) return task.await(0);
+        long left = deadline - System.currentTimeMillis();
+        return left > 0 && task.await(left);
+    }
+
+
+    private static boolean waitFor(Process p, long deadline) throws InterruptedException {
+        if (deadline == 0) {
+            p.waitFor();
+            return true;
+        }
+        // the streams are already closed, so the process is about to exit
+        for (long pause = 1; ; pause = Math.min(pause * 2, 50)) {
+            try {
+                p.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                Thread.sleep(Math.min(pause, left));
+            }
+        }
+    }
+
+
+    private static final class StreamReader implements WorkerPool.Job {
+
+        private final InputStream stream;
+        private final String encoding;
+        private final int limit;
+        private final Writer out;
+        private final boolean discard;
+        private final List lines = new ArrayList();
+        private final StringBuffer line = new StringBuffer();
+        private int stored;
+        private boolean truncated;
+        private boolean cancelled;
+
+        private StreamReader(InputStream stream, String encoding, int limit, Writer out, boolean discard) {
+            this.stream = stream;
+            this.encoding = encoding;
+            this.limit = limit;
+            this.out = out;
+            this.discard = discard;
+        }
+
+        public Object run() throws IOException {
+            Reader reader = new InputStreamReader(stream, encoding);
+            try {
+                char[] buf = new char[8192];
+                boolean skipLF = false;
+                for (int n = reader.read(buf); n >= 0; n = reader.read(buf)) {
+                    if (discard) continue;
+                    if (out != null) {
+                        write(buf, n);
+                        continue;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        char c = buf[i];
+                        if (skipLF) {
+                            skipLF = false;
+                            if (c == '\n') continue;
+                        }
+                        if (c == '\n' || c == '\r') {
+                            skipLF = (c == '\r');
+                            endLine();
+                        } else if (limit == 0 || stored < limit) {
+                            line.append(c);
+                            stored++;
+                        } else {
+                            truncated = true;
                         }
                     }
                 }
-        );
-        ret.start();
-        return ret;
-    }
+                if (line.length() > 0) endLine();
+            } finally {
+                reader.close();
+            }
+            return null;
+        }
 
+        private void endLine() {
+            if (limit == 0 || stored < limit || line.length() > 0) {
+                lines.add(line.toString());
+            } else {
+                truncated = true;
+            }
+            line.setLength(0);
+        }
 
-}
+        private synchronized void write(char[] buf, int len) throws IOException {
+            if (!cancelled) out.write(buf, 0, len);
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+        }
 
+        private String[] getLines() {
+            return (String[]) lines.toArray(new String[lines.size()]);
+        }
+
+        private boolean isTruncated() {
+            return truncated;
+        }
 
+    }
+
+
+}
@@ -16,18 +16,22 @@
 package ftldb.ext;
 
 
+import freemarker.ext.beans.BeansWrapper;
 import freemarker.ext.beans.BeansWrapperBuilder;
-import freemarker.template.TemplateMethodModelEx;
-import freemarker.template.TemplateModelException;
-import freemarker.template.TemplateScalarModel;
+import freemarker.template.*;
 import ftldb.Configurator;
 
+import java.util.ArrayList;
 import java.util.List;
 
 
 /**
  * This class implements an FTL method named {@code static} that returns a static model for the specified class.
  *
+ * <p>Static models are taken from the configuration's object wrapper if it is a {@link BeansWrapper}, so they share
+ * its class introspection cache, and each class is introspected only once. Otherwise, a shared {@link BeansWrapper}
+ * is used. Frequently used classes can be introspected in advance, see {@link #preload(String[])}.
+ *
  * <p>Method definition: {@code StaticModel static(String class_name)}
  * <p>Method arguments:
  * <pre>
@@ -45,6 +49,29 @@ import java.util.List;
 public class StaticMethod implements TemplateMethodModelEx {
 
 
+    private final Configuration config;
+    private final List preloadedClasses = new ArrayList();
+    private volatile Binding binding;
+
+
+    /**
+     * Creates an instance bound to the current configuration at the time of a call.
+     */
+    public StaticMethod() {
+        this(null);
+    }
+
+
+    /**
+     * Creates an instance bound to the specified configuration.
+     *
+     * @param config the configuration whose object wrapper provides static models, {@code null} means the current one
+     */
+    public StaticMethod(Configuration config) {
+        this.config = config;
+    }
+
+
     public Object exec(List args) throws TemplateModelException {
         if (args.size() != 1) {
             throw new TemplateModelException("Wrong number of arguments: expected 1, got " + args.size());
@@ -56,8 +83,79 @@ public class StaticMethod implements TemplateMethodModelEx {
                     + "expected string, got " + classNameObj.getClass().getName());
         }
 
-        return new BeansWrapperBuilder(Configurator.getConfiguration().getIncompatibleImprovements()).build()
-                .getStaticModels().get(((TemplateScalarModel) classNameObj).getAsString());
+        return getStaticModels().get(((TemplateScalarModel) classNameObj).getAsString());
+    }
+
+
+    /**
+     * Introspects the specified classes in advance, so the first {@code static} calls in templates are as fast as the
+     * subsequent ones. The classes are introspected again if the configuration's object wrapper is replaced.
+     *
+     * @param classNames the names of the classes
+     * @throws TemplateModelException if a class is not found
+     */
+    public void preload(String[] classNames) throws TemplateModelException {
+        synchronized (preloadedClasses) {
+            for (int i = 0; i < classNames.length; i++) {
+                if (!preloadedClasses.contains(classNames[i])) {
+                    preloadedClasses.add(classNames[i]);
+                }
+            }
+        }
+        TemplateHashModel staticModels = getStaticModels();
+        for (int i = 0; i < classNames.length; i++) {
+            staticModels.get(classNames[i]);
+        }
+    }
+
+
+    /**
+     * Returns the names of the classes introspected in advance.
+     *
+     * @return the class names
+     */
+    public String[] getPreloadedClasses() {
+        synchronized (preloadedClasses) {
+            return (String[]) preloadedClasses.toArray(new String[preloadedClasses.size()]);
+        }
+    }
+
+
+    private TemplateHashModel getStaticModels() throws TemplateModelException {
+        Configuration cfg = (config != null) ? config : Configurator.getConfiguration();
+        ObjectWrapper wrapper = cfg.getObjectWrapper();
+
+        Binding b = binding;
+        if (b != null && b.wrapper == wrapper) {
+            return b.staticModels;
+        }
+
+        // the object wrapper has been replaced (or it is the first call), so bind to the new one
+        BeansWrapper bw = (wrapper instanceof BeansWrapper)
+                ? (BeansWrapper) wrapper
+                : new BeansWrapperBuilder(cfg.getIncompatibleImprovements()).build();
+        b = new Binding(wrapper, bw.getStaticModels());
+        binding = b;
+
+        String[] classNames = getPreloadedClasses();
+        for (int i = 0; i < classNames.length; i++) {
+            b.staticModels.get(classNames[i]);
+        }
+
+        return b.staticModels;
+    }
+
+
+    private static final class Binding {
+
+        private final ObjectWrapper wrapper;
+        private final TemplateHashModel staticModels;
+
+        private Binding(ObjectWrapper wrapper, TemplateHashModel staticModels) {
+            this.wrapper = wrapper;
+            this.staticModels = staticModels;
+        }
+
     }
 
 
@@ -16,11 +16,13 @@
 package ftldb.ext;
 
 
+import freemarker.core.CustomAttribute;
 import freemarker.core.Environment;
 import freemarker.core.EnvironmentInternalsAccessor;
 import freemarker.core.TemplateElement;
 import freemarker.log.Logger;
 import freemarker.template.*;
+import ftldb.PrefetchingTemplateLoader;
 
 import java.io.IOException;
 import java.util.List;
@@ -111,37 +113,37 @@ public class TemplateHelper {
     public static class TemplateNameMethod implements TemplateMethodModelEx {
 
         public Object exec(List args) throws TemplateModelException {
+            Template template = getTemplate(args);
+            return (template == null) ? null : template.getName();
+        }
 
-            if (args.size() > 1) {
-                throw new TemplateModelException("Wrong number of arguments: expected 0 or 1, got " + args.size());
-            }
-
-            int depth;
+    }
 
-            if (args.size() == 1) {
-                Object o = args.get(0);
 
-                if (!(o instanceof TemplateNumberModel)) {
-                    throw new TemplateModelException("Illegal type of argument: expected int, got " +
-                            o.getClass().getName());
-                }
+    private static Template getTemplate(List args) throws TemplateModelException {
 
-                depth = ((TemplateNumberModel) o).getAsNumber().intValue();
-            } else {
-                depth = 0;
-            }
-
-            TemplateElement[] stack = EnvironmentInternalsAccessor.getInstructionStackSnapshot();
-            int ln = stack.length;
+        if (args.size() > 1) {
+            throw new TemplateModelException("Wrong number of arguments: expected 0 or 1, got " + args.size());
+        }
 
-            if (depth > ln - 1 || depth < -ln) return null;
+        int depth;
 
-            if (depth < 0) depth = ln + depth;
+        if (args.size() == 1) {
+            Object o = args.get(0);
 
-            return stack[depth].getTemplate().getName();
+            if (!(o instanceof TemplateNumberModel)) {
+                throw new TemplateModelException("Illegal type of argument: expected int, got " +
+                        o.getClass().getName());
+            }
 
+            depth = ((TemplateNumberModel) o).getAsNumber().intValue();
+        } else {
+            depth = 0;
         }
 
+        TemplateElement el = EnvironmentInternalsAccessor.getInstructionStackElement(depth);
+        return (el == null) ? null : el.getTemplate();
+
     }
 
 
@@ -160,12 +162,23 @@ public class TemplateHelper {
      */
     public static class TemplateDirnameMethod implements TemplateMethodModelEx {
 
+        // The dirname is computed once per template.
+        private static final CustomAttribute DIRNAME = new CustomAttribute(CustomAttribute.SCOPE_TEMPLATE);
+
         public Object exec(List args) throws TemplateModelException {
 
-            String templateName = (String) new TemplateNameMethod().exec(args);
-            return (templateName.matches("@.+/.+"))
-                    ? templateName.substring(1, templateName.lastIndexOf('/'))
-                    : "";
+            Template template = getTemplate(args);
+            if (template == null) return null;
+
+            String dirname = (String) DIRNAME.get(template);
+            if (dirname == null) {
+                String templateName = template.getName();
+                dirname = (templateName != null && templateName.matches("@.+/.+"))
+                        ? templateName.substring(1, templateName.lastIndexOf('/'))
+                        : "";
+                DIRNAME.set(dirname, template);
+            }
+            return dirname;
 
         }
 
@@ -191,7 +204,62 @@ public class TemplateHelper {
             if (args.size() != 0) {
                 throw new TemplateModelException("No arguments needed");
             }
-            return new Integer(EnvironmentInternalsAccessor.getInstructionStackSnapshot()[0].getBeginLine());
+            return new Integer(EnvironmentInternalsAccessor.getInstructionStackElement(0).getBeginLine());
+        }
+
+    }
+
+
+    /**
+     * This class implements an FTL method named {@code prefetch_templates} that loads the specified templates from the
+     * database in one round trip, if the configuration's template loader is a {@link PrefetchingTemplateLoader}, e.g.
+     * {@link ftldb.oracle.DatabaseTemplateLoader}. Otherwise it does nothing. Returns the number of found templates.
+     *
+     * <p>Method definition: {@code prefetch_templates(sequence names)}
+     * <p>Method arguments:
+     * <pre>
+     *     {@code names} - a sequence of absolute template names
+     * </pre>
+     *
+     * <p>Usage examples in FTL:
+     * <pre>
+     * {@code
+     * <#assign void = prefetch_templates(["@ftldb/std.ftl", "@ftldb/orasql.ftl"])/>
+     * }
+     * </pre>
+     */
+    public static class PrefetchTemplatesMethod implements TemplateMethodModelEx {
+
+        public Object exec(List args) throws TemplateModelException {
+            if (args.size() != 1) {
+                throw new TemplateModelException("Wrong number of arguments: expected 1, got " + args.size());
+            }
+
+            Object o = args.get(0);
+            if (!(o instanceof TemplateSequenceModel)) {
+                throw new TemplateModelException("Illegal type of argument: expected sequence, got "
+                        + o.getClass().getName());
+            }
+
+            TemplateSequenceModel seq = (TemplateSequenceModel) o;
+            String[] names = new String[seq.size()];
+            for (int i = 0; i < names.length; i++) {
+                TemplateModel name = seq.get(i);
+                if (!(name instanceof TemplateScalarModel)) {
+                    throw new TemplateModelException("Illegal type of sequence item #" + (i + 1) + ": expected string,"
+                            + " got " + (name == null ? "null" : name.getClass().getName()));
+                }
+                names[i] = ((TemplateScalarModel) name).getAsString();
+            }
+
+            Object loader = Environment.getCurrentEnvironment().getConfiguration().getTemplateLoader();
+            if (!(loader instanceof PrefetchingTemplateLoader)) return new Integer(0);
+
+            try {
+                return new Integer(((PrefetchingTemplateLoader) loader).prefetch(names));
+            } catch (IOException e) {
+                throw new TemplateModelException(e);
+            }
         }
 
     }
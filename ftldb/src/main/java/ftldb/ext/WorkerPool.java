@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext;
+
+
+import java.util.LinkedList;
+
+
+/**
+ * This class is a fixed-size pool of daemon threads executing submitted jobs in order of submission. Threads are
+ * started on demand and then reused for subsequent jobs.
+ *
+ * <p>It is a minimal replacement of {@code java.util.concurrent} executors, which are not available in the embedded
+ * 1.4 JVM of older databases.
+ */
+public class WorkerPool {
+
+
+    private final String name;
+    private final int size;
+    private final LinkedList queue = new LinkedList();
+    private int threadCount;
+    private int idleCount;
+    private boolean shutdown;
+
+
+    /**
+     * Creates a new pool. No threads are started until a job is submitted.
+     *
+     * @param name the pool's name used as a prefix of its threads' names
+     * @param size the maximum number of threads
+     */
+    public WorkerPool(String name, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Worker pool size must be positive: " + size);
+        }
+        this.name = name;
+        this.size = size;
+    }
+
+
+    /**
+     * Returns the maximum number of threads.
+     *
+     * @return the pool size
+     */
+    public int getSize() {
+        return size;
+    }
+
+
+    /**
+     * Queues the specified job for execution.
+     *
+     * @param job the job to be executed
+     * @return the task to wait for the job's result
+     */
+    public synchronized Task submit(Job job) {
+        if (shutdown) {
+            throw new IllegalStateException("Worker pool " + name + " is shut down");
+        }
+
+        Task task = new Task(job);
+        queue.addLast(task);
+
+        // idle threads may not have woken up for the previous jobs yet, so compare with the whole queue
+        if (queue.size() > idleCount && threadCount < size) {
+            Thread t = new Thread(new Worker(), name + "-" + (++threadCount));
+            t.setDaemon(true);
+            t.start();
+        } else {
+            notify();
+        }
+
+        return task;
+    }
+
+
+    /**
+     * Executes the specified job on a thread of the pool if one is available, otherwise on a new dedicated thread, so
+     * the job never waits for other jobs. A dedicated thread is a daemon thread that exits after the job. This is meant
+     * for jobs that may block for a long time, which could otherwise hold up all the pool's threads.
+     *
+     * @param job the job to be executed
+     * @return the task to wait for the job's result
+     */
+    public synchronized Task execute(Job job) {
+        if (shutdown || queue.size() < idleCount || threadCount < size) {
+            return submit(job);
+        }
+
+        final Task task = new Task(job);
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                task.run();
+            }
+        }, name + "-dedicated");
+        t.setDaemon(true);
+        t.start();
+        return task;
+    }
+
+
+    /**
+     * Stops accepting new jobs. Queued jobs are still executed, after which the threads exit.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+
+    private synchronized Task take() throws InterruptedException {
+        while (queue.isEmpty()) {
+            if (shutdown) {
+                threadCount--;
+                return null;
+            }
+            idleCount++;
+            try {
+                wait();
+            } finally {
+                idleCount--;
+            }
+        }
+        return (Task) queue.removeFirst();
+    }
+
+
+    private class Worker implements Runnable {
+
+        public void run() {
+            try {
+                for (Task task = take(); task != null; task = take()) {
+                    task.run();
+                }
+            } catch (InterruptedException ignored) {
+                synchronized (WorkerPool.this) {
+                    threadCount--;
+                }
+            }
+        }
+
+    }
+
+
+    /**
+     * A unit of work executed by the pool.
+     */
+    public interface Job {
+
+        /**
+         * Does the work.
+         *
+         * @return the result (nullable)
+         * @throws Exception if the work fails
+         */
+        Object run() throws Exception;
+
+    }
+
+
+    /**
+     * A submitted job, which allows to wait for its completion and get its result.
+     */
+    public static final class Task {
+
+        private final Job job;
+        private boolean done;
+        private Object result;
+        private Throwable error;
+
+        private Task(Job job) {
+            this.job = job;
+        }
+
+        private void run() {
+            Object res = null;
+            Throwable err = null;
+            try {
+                res = job.run();
+            } catch (Throwable e) {
+                err = e;
+            }
+            synchronized (this) {
+                result = res;
+                error = err;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Determines whether the job is finished, successfully or not.
+         *
+         * @return {@code true} if the job is finished
+         */
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Waits for the job to finish at most the specified time.
+         *
+         * @param timeout the maximum time to wait in milliseconds, {@code 0} means forever
+         * @return {@code true} if the job is finished
+         * @throws InterruptedException if the current thread is interrupted while waiting
+         */
+        public synchronized boolean await(long timeout) throws InterruptedException {
+            if (timeout == 0) {
+                while (!done) wait();
+                return true;
+            }
+            long deadline = System.currentTimeMillis() + timeout;
+            for (long left = timeout; !done && left > 0; left = deadline - System.currentTimeMillis()) {
+                wait(left);
+            }
+            return done;
+        }
+
+        /**
+         * Waits for the job to finish and returns its result. If the job fails, its exception is rethrown.
+         *
+         * @return the job's result
+         * @throws Exception the job's exception
+         */
+        public synchronized Object get() throws Exception {
+            await(0);
+            if (error instanceof Exception) throw (Exception) error;
+            if (error instanceof Error) throw (Error) error;
+            return result;
+        }
+
+    }
+
+
+}
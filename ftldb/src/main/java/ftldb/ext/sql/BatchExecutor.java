@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.Date;
+
+
+/**
+ * This class is a database batch executor. It executes a DML statement for each list of bind variable values, sending
+ * the statements to the database in batches via {@link PreparedStatement#addBatch()} and
+ * {@link PreparedStatement#executeBatch()}, so thousands of rows take only a few round trips.
+ */
+public class BatchExecutor {
+
+
+    /**
+     * The default number of statements sent to the database in one round trip.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+
+    private final StatementCache statementCache;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+
+    /**
+     * Creates a new instance using the specified connection. Statements are not cached and are closed after use.
+     *
+     * @param connection the connection to a database
+     */
+    public BatchExecutor(Connection connection) {
+        this(new StatementCache(connection, 0));
+    }
+
+
+    /**
+     * Creates a new instance using the specified statement cache of a connection.
+     *
+     * @param statementCache the cache of the connection's statements
+     */
+    public BatchExecutor(StatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
+
+    /**
+     * Returns the default number of statements sent to the database in one round trip.
+     *
+     * @return the default batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+
+    /**
+     * Sets the default number of statements sent to the database in one round trip.
+     *
+     * @param batchSize the default batch size, must be positive
+     */
+    public void setBatchSize(int batchSize) {
+        checkBatchSize(batchSize);
+        this.batchSize = batchSize;
+    }
+
+
+    private static void checkBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+    }
+
+
+    /**
+     * Executes the specified statement for each list of bind variable values in batches of the default size.
+     *
+     * @param statement the DML statement
+     * @param bindLists the list of lists of bind variable values
+     * @return the update counts in order of the bind lists, see {@link java.sql.Statement#executeBatch()}
+     * @throws SQLException if a database access error occurs
+     */
+    public int[] executeBatch(String statement, List bindLists) throws SQLException {
+        return executeBatch(statement, bindLists, batchSize);
+    }
+
+
+    /**
+     * Executes the specified statement for each list of bind variable values in batches of the specified size.
+     *
+     * @param statement the DML statement
+     * @param bindLists the list of lists of bind variable values
+     * @param batchSize the number of statements sent in one round trip, must be positive
+     * @return the update counts in order of the bind lists, see {@link java.sql.Statement#executeBatch()}
+     * @throws SQLException if a database access error occurs
+     * @throws IllegalArgumentException if the batch size is not positive
+     */
+    public int[] executeBatch(String statement, List bindLists, int batchSize) throws SQLException {
+        if (statement == null || "".equals(statement.trim())) {
+            throw new SQLException("Unable to execute empty statement");
+        }
+        checkBatchSize(batchSize);
+        if (bindLists == null) bindLists = Collections.EMPTY_LIST;
+
+        int[] ret = new int[bindLists.size()];
+        if (ret.length == 0) return ret;
+
+        PreparedStatement ps = statementCache.prepareStatement(statement);
+
+        // a cached statement may be shared, so binding and executing must not interleave
+        synchronized (ps) {
+            try {
+                ps.clearBatch();
+
+                int done = 0;
+                int pending = 0;
+
+                for (Iterator it = bindLists.iterator(); it.hasNext(); ) {
+                    Object binds = it.next();
+                    if (!(binds instanceof List)) {
+                        throw new SQLException("Wrong bind list #" + (done + pending + 1) + ": expected List, got "
+                                + (binds == null ? "null" : binds.getClass().getName()));
+                    }
+
+                    ps.clearParameters();
+                    int index = 1;
+                    for (Iterator bit = ((List) binds).iterator(); bit.hasNext(); ) {
+                        Object o = bit.next();
+                        // JDBC can't work with java.util.Date directly
+                        if (o instanceof Date) o = TypeHelper.toSQLDate((Date) o);
+                        ps.setObject(index++, o);
+                    }
+                    ps.addBatch();
+
+                    if (++pending == batchSize) {
+                        done = flush(ps, ret, done);
+                        pending = 0;
+                    }
+                }
+
+                if (pending > 0) {
+                    flush(ps, ret, done);
+                }
+            } catch (SQLException e) {
+                try {
+                    ps.clearBatch();
+                } catch (SQLException ignored) {
+                }
+                throw e;
+            } finally {
+                statementCache.release(ps);
+            }
+        }
+
+        return ret;
+    }
+
+
+    private static int flush(PreparedStatement ps, int[] counts, int offset) throws SQLException {
+        int[] batchCounts = ps.executeBatch();
+        System.arraycopy(batchCounts, 0, counts, offset, batchCounts.length);
+        return offset + batchCounts.length;
+    }
+
+
+}
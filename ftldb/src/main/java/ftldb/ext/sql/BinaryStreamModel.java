@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.core.Environment;
+import freemarker.ext.beans.BeanModel;
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * This class is the base of binary data models. A model is a directive that writes the data to the output as base64
+ * or hex text, reading and encoding it in chunks:
+ * <pre>
+ * {@code
+ * <@blob/>
+ * <@blob encoding="hex" line_length=64/>
+ * }
+ * </pre>
+ * The {@code encoding} parameter is {@code "base64"} (default) or {@code "hex"}, the {@code line_length} parameter is
+ * the maximum number of characters in a line, {@code 0} (default) means no line breaks.
+ */
+public abstract class BinaryStreamModel extends BeanModel implements TemplateDirectiveModel {
+
+
+    /**
+     * The number of bytes read in one call while writing the data to the output.
+     */
+    public static final int CHUNK_SIZE = 24576;
+
+
+    private static final String PARAM_NAME_ENCODING = "encoding";
+    private static final String PARAM_NAME_LINE_LENGTH = "line_length";
+
+
+    protected BinaryStreamModel(Object object, BeansWrapper wrapper) {
+        super(object, wrapper);
+    }
+
+
+    /**
+     * Opens the stream of the wrapped binary data.
+     *
+     * @return the binary stream
+     * @throws TemplateModelException if the data can't be read
+     */
+    protected abstract InputStream openStream() throws TemplateModelException;
+
+
+    /**
+     * Writes the binary data to the output as base64 or hex text.
+     */
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+            throws TemplateException, IOException {
+        if (body != null) {
+            throw new TemplateModelException("Wrong usage: body is not allowed");
+        }
+        if (loopVars.length != 0) {
+            throw new TemplateModelException("Wrong usage: loop variables are not allowed");
+        }
+
+        String encoding = BinaryTextEncoder.BASE64;
+        int lineLength = 0;
+
+        for (Iterator it = params.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry param = (Map.Entry) it.next();
+            Object value = param.getValue();
+
+            if (PARAM_NAME_ENCODING.equals(param.getKey())) {
+                if (!(value instanceof TemplateScalarModel)) {
+                    throw new TemplateModelException("Illegal type of parameter \"" + PARAM_NAME_ENCODING
+                            + "\": expected string, got " + value.getClass().getName());
+                }
+                encoding = ((TemplateScalarModel) value).getAsString();
+                if (!BinaryTextEncoder.isSupported(encoding)) {
+                    throw new TemplateModelException("Illegal value of parameter \"" + PARAM_NAME_ENCODING
+                            + "\": expected \"" + BinaryTextEncoder.BASE64 + "\" or \"" + BinaryTextEncoder.HEX
+                            + "\", got \"" + encoding + "\"");
+                }
+            } else if (PARAM_NAME_LINE_LENGTH.equals(param.getKey())) {
+                if (!(value instanceof TemplateNumberModel)) {
+                    throw new TemplateModelException("Illegal type of parameter \"" + PARAM_NAME_LINE_LENGTH
+                            + "\": expected number, got " + value.getClass().getName());
+                }
+                lineLength = ((TemplateNumberModel) value).getAsNumber().intValue();
+                if (lineLength < 0) {
+                    throw new TemplateModelException("Illegal value of parameter \"" + PARAM_NAME_LINE_LENGTH
+                            + "\": expected non-negative number, got " + lineLength);
+                }
+            } else {
+                throw new TemplateModelException("Wrong parameter name: expected \"" + PARAM_NAME_ENCODING
+                        + "\" or \"" + PARAM_NAME_LINE_LENGTH + "\", got \"" + param.getKey() + "\"");
+            }
+        }
+
+        InputStream in = openStream();
+        try {
+            BinaryTextEncoder encoder = new BinaryTextEncoder(env.getOut(), encoding, lineLength);
+            byte[] buf = new byte[CHUNK_SIZE];
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                encoder.write(buf, 0, n);
+            }
+            encoder.close();
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Returns the empty list. Iteration through the {@code super.values()} list causes an exception.
+     *
+     * @return the empty list
+     */
+    public TemplateCollectionModel values() {
+        return new SimpleCollection(new ArrayList(0), wrapper);
+    }
+
+
+}
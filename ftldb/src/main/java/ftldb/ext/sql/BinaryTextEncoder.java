@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+
+/**
+ * This class is an {@link OutputStream} that encodes written bytes as base64 or hex text and writes the text to a
+ * {@link Writer}. Bytes are encoded as they come, so binary data of any size can be copied to a template's output
+ * without being held in memory. The text can be split into lines of the specified length.
+ *
+ * <p>Closing the stream writes the base64 padding and the buffered characters, but does not close the writer.
+ */
+public class BinaryTextEncoder extends OutputStream {
+
+
+    /**
+     * The name of the base64 encoding (RFC 4648, with padding).
+     */
+    public static final String BASE64 = "base64";
+
+
+    /**
+     * The name of the hex encoding (uppercase, two characters per byte), as understood by {@code HEXTORAW}.
+     */
+    public static final String HEX = "hex";
+
+
+    private static final char[] BASE64_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+
+    private final Writer out;
+    private final boolean base64;
+    private final int lineLength;
+    private final char[] buffer = new char[8192];
+    private int count;
+    private int column;
+    private int pendingBits;
+    private int pendingCount;
+    private boolean closed;
+
+
+    /**
+     * Creates an encoder writing to the specified writer.
+     *
+     * @param out the destination writer
+     * @param encoding {@link #BASE64} or {@link #HEX}
+     * @param lineLength the maximum number of characters in a line, {@code 0} means no line breaks
+     */
+    public BinaryTextEncoder(Writer out, String encoding, int lineLength) {
+        if (!isSupported(encoding)) {
+            throw new IllegalArgumentException("Unsupported binary encoding: " + encoding);
+        }
+        if (lineLength < 0) {
+            throw new IllegalArgumentException("Line length must be non-negative: " + lineLength);
+        }
+        this.out = out;
+        this.base64 = BASE64.equals(encoding);
+        this.lineLength = lineLength;
+    }
+
+
+    /**
+     * Determines whether the specified encoding is supported.
+     *
+     * @param encoding the encoding name
+     * @return {@code true} for {@link #BASE64} and {@link #HEX}
+     */
+    public static boolean isSupported(String encoding) {
+        return BASE64.equals(encoding) || HEX.equals(encoding);
+    }
+
+
+    public void write(int b) throws IOException {
+        ensureOpen();
+        encode(b);
+    }
+
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        for (int i = off, end = off + len; i < end; i++) {
+            encode(b[i]);
+        }
+    }
+
+
+    private void encode(int b) throws IOException {
+        if (base64) {
+            pendingBits = (pendingBits << 8) | (b & 0xFF);
+            if (++pendingCount == 3) {
+                put(BASE64_DIGITS[(pendingBits >> 18) & 0x3F]);
+                put(BASE64_DIGITS[(pendingBits >> 12) & 0x3F]);
+                put(BASE64_DIGITS[(pendingBits >> 6) & 0x3F]);
+                put(BASE64_DIGITS[pendingBits & 0x3F]);
+                pendingBits = 0;
+                pendingCount = 0;
+            }
+        } else {
+            put(HEX_DIGITS[(b >> 4) & 0x0F]);
+            put(HEX_DIGITS[b & 0x0F]);
+        }
+    }
+
+
+    private void put(char c) throws IOException {
+        if (lineLength > 0 && column == lineLength) {
+            append('\n');
+            column = 0;
+        }
+        append(c);
+        column++;
+    }
+
+
+    private void append(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = c;
+    }
+
+
+    /**
+     * Writes the buffered characters to the writer. Up to two bytes of an incomplete base64 group stay pending.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        out.flush();
+    }
+
+
+    /**
+     * Encodes the pending bytes with padding and writes the buffered characters to the writer, which is left open.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        if (closed) return;
+        if (pendingCount == 1) {
+            put(BASE64_DIGITS[(pendingBits >> 2) & 0x3F]);
+            put(BASE64_DIGITS[(pendingBits << 4) & 0x3F]);
+            put('=');
+            put('=');
+        } else if (pendingCount == 2) {
+            put(BASE64_DIGITS[(pendingBits >> 10) & 0x3F]);
+            put(BASE64_DIGITS[(pendingBits >> 4) & 0x3F]);
+            put(BASE64_DIGITS[(pendingBits << 2) & 0x3F]);
+            put('=');
+        }
+        flushBuffer();
+        closed = true;
+    }
+
+
+    private void flushBuffer() throws IOException {
+        if (count == 0) return;
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Encoder is closed");
+        }
+    }
+
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.TemplateModelException;
+
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+
+
+/**
+ * This class wraps {@link Blob} and adapts it for using in FTL as a directive that writes the LOB to the output as
+ * base64 or hex text, see {@link BinaryStreamModel}. The LOB is read in chunks on each use and never held in memory
+ * entirely. Its length is available as {@code ${blob.length()}}.
+ */
+public class BlobModel extends BinaryStreamModel {
+
+
+    private final Blob blob;
+
+
+    public BlobModel(Blob blob, BeansWrapper wrapper) {
+        super(blob, wrapper);
+        this.blob = blob;
+    }
+
+
+    protected InputStream openStream() throws TemplateModelException {
+        try {
+            return blob.getBinaryStream();
+        } catch (SQLException e) {
+            throw new TemplateModelException(e);
+        }
+    }
+
+
+    /**
+     * Returns the blob size. The LOB is not read.
+     *
+     * @return the number of bytes or {@link Integer#MAX_VALUE} for LOBs over 2 GB
+     */
+    public int size() {
+        try {
+            return (int) Math.min(blob.length(), Integer.MAX_VALUE);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+}
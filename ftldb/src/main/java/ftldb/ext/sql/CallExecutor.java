@@ -29,16 +29,26 @@ import java.util.*;
 public class CallExecutor {
 
 
-    private final Connection connection;
+    private final StatementCache statementCache;
 
 
     /**
-     * Creates a new instance using the specified connection.
+     * Creates a new instance using the specified connection. Statements are not cached and are closed after use.
      *
      * @param connection the connection to a database
      */
     public CallExecutor(Connection connection) {
-        this.connection = connection;
+        this(new StatementCache(connection, 0));
+    }
+
+
+    /**
+     * Creates a new instance using the specified statement cache of a connection.
+     *
+     * @param statementCache the cache of the connection's statements
+     */
+    public CallExecutor(StatementCache statementCache) {
+        this.statementCache = statementCache;
     }
 
 
@@ -59,13 +69,22 @@ public class CallExecutor {
         }
         if (inBinds == null) inBinds = Collections.EMPTY_MAP;
         if (outBinds == null) outBinds = Collections.EMPTY_MAP;
-        return executeCallInternal(call, inBinds, outBinds);
-    }
 
+        CallableStatement cs = statementCache.prepareCall(call);
+
+        // a cached statement may be shared, so binding and executing must not interleave
+        synchronized (cs) {
+            try {
+                cs.clearParameters();
+                return executeCallInternal(cs, inBinds, outBinds);
+            } finally {
+                statementCache.release(cs);
+            }
+        }
+    }
 
-    private Map executeCallInternal(String call, Map inBinds, Map outBinds) throws SQLException {
 
-        CallableStatement cs = connection.prepareCall(call);
+    private Map executeCallInternal(CallableStatement cs, Map inBinds, Map outBinds) throws SQLException {
 
         for (Iterator it = inBinds.entrySet().iterator(); it.hasNext(); ) {
             Map.Entry e = (Map.Entry) it.next();
@@ -138,6 +157,8 @@ public class CallExecutor {
             Object retBind = cs.getObject(index);
             if (retBind instanceof ResultSet) {
                 retBind = new FetchedResultSet((ResultSet) retBind);
+            } else {
+                ResourceRegistry.registerValue(retBind);
             }
             ret.put(String.valueOf(index), retBind);
         }
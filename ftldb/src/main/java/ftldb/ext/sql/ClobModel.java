@@ -16,54 +16,243 @@
 package ftldb.ext.sql;
 
 
+import freemarker.core.CollectionAndSequence;
+import freemarker.core.Environment;
 import freemarker.ext.beans.BeanModel;
 import freemarker.ext.beans.BeansWrapper;
-import freemarker.template.SimpleCollection;
-import freemarker.template.TemplateCollectionModel;
-import freemarker.template.TemplateModelException;
-import freemarker.template.TemplateScalarModel;
+import freemarker.template.*;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.sql.Clob;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
- * This class wraps {@link Clob} and adapts it for using in FTL as a string.
+ * This class wraps {@link Clob} and adapts it for using in FTL as a string. The LOB is not read until its contents
+ * are requested, and then read only once.
+ *
+ * <p>Since the LOB is read lazily, it must still be readable when the value is used: the read fails once the
+ * connection the LOB was fetched by is closed or the LOB is freed, e.g. by the end of the processing, which releases the
+ * tracked resources (see {@link ResourceRegistry}), or by the release of a streamed row. Formerly the LOB was read
+ * when it was wrapped, so the following worked, and now it does not:
+ * <pre>
+ * {@code
+ * <#assign c = conn.query("select c from t")[0].C/>
+ * <#assign void = conn.close()/>
+ * ${c}
+ * }
+ * </pre>
+ * To keep a LOB's contents beyond the life of the connection or the row, read it into a string beforehand, e.g. by
+ * {@code <#assign c = conn.query("select c from t")[0].C?string/>}.
+ *
+ * <p>Besides {@code ${clob}}, which reads the whole LOB into a string, the model can be used as a directive that
+ * writes the LOB to the output in chunks, so even LOBs over 2 GB never get into memory entirely:
+ * <pre>
+ * {@code
+ * <@clob/>
+ * }
+ * </pre>
+ * The length of the LOB and its parts can also be got without reading the rest of it:
+ * <pre>
+ * {@code
+ * ${clob.length()} ${clob.substring(0, 100)}
+ * }
+ * </pre>
  */
-public class ClobModel extends BeanModel implements TemplateScalarModel {
+public class ClobModel extends BeanModel implements TemplateScalarModel, TemplateDirectiveModel {
+
+
+    /**
+     * The number of characters read from the LOB in one call while writing it to the output.
+     */
+    public static final int CHUNK_SIZE = 32768;
 
 
-    private final String string;
+    private final Clob clob;
+    private long length = -1;
+    private String string;
 
 
-    public ClobModel(Clob clob, BeansWrapper wrapper) throws TemplateModelException {
+    public ClobModel(Clob clob, BeansWrapper wrapper) {
         super(clob, wrapper);
-        try {
-            this.string = clob.getSubString(1, (int) clob.length());
-        } catch (SQLException e) {
-            throw new TemplateModelException(e);
-        }
+        this.clob = clob;
     }
 
 
     /**
-     * Returns the string representation of this clob.
+     * Returns the string representation of this clob. The LOB is read on the first call.
      *
      * @return clob as a string
      */
     public String getAsString() throws TemplateModelException {
+        if (string == null) {
+            long len = getLength();
+            if (len > Integer.MAX_VALUE) {
+                throw new TemplateModelException("CLOB is too large to be read into a string: " + len
+                        + " characters; use it as a directive to write it to the output");
+            }
+            try {
+                string = (len == 0) ? "" : clob.getSubString(1, (int) len);
+            } catch (SQLException e) {
+                throw new TemplateModelException(e);
+            }
+        }
         return string;
     }
 
 
     /**
-     * Returns the clob size.
+     * Returns the clob size. The LOB is not read.
      *
-     * @return the number of characters
+     * @return the number of characters or {@link Integer#MAX_VALUE} for LOBs over 2 GB
      */
     public int size() {
-        return string.length();
+        try {
+            return (int) Math.min(getLength(), Integer.MAX_VALUE);
+        } catch (TemplateModelException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private long getLength() throws TemplateModelException {
+        if (length == -1) {
+            try {
+                length = (string != null) ? string.length() : clob.length();
+            } catch (SQLException e) {
+                throw new TemplateModelException(e);
+            }
+        }
+        return length;
+    }
+
+
+    /**
+     * Writes the clob to the output in chunks of {@link #CHUNK_SIZE} characters. If the clob has already been read
+     * into a string, the string is written instead.
+     */
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+            throws TemplateException, IOException {
+        if (body != null) {
+            throw new TemplateModelException("Wrong usage: body is not allowed");
+        }
+        if (loopVars.length != 0) {
+            throw new TemplateModelException("Wrong usage: loop variables are not allowed");
+        }
+        if (params.size() != 0) {
+            throw new TemplateModelException("Wrong number of named parameters: expected 0, got " + params.size());
+        }
+
+        Writer out = env.getOut();
+        if (string != null) {
+            out.write(string);
+            return;
+        }
+
+        Reader r;
+        try {
+            r = clob.getCharacterStream();
+        } catch (SQLException e) {
+            throw new TemplateModelException(e);
+        }
+
+        try {
+            char[] buf = new char[(int) Math.min(CHUNK_SIZE, Math.max(getLength(), 1))];
+            for (int n = r.read(buf); n != -1; n = r.read(buf)) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+
+    private final static String SUBSTRING_METHOD_NAME = "substring";
+
+
+    /**
+     * Get the specified property or method's result.
+     *
+     * @return the result of evaluation
+     */
+    public TemplateModel get(String key) throws TemplateModelException {
+        if (key.equals(SUBSTRING_METHOD_NAME)) {
+            return substring();
+        }
+        return super.get(key);
+    }
+
+
+    /**
+     * Returns the method that reads a part of the clob as {@code ?substring} does for strings: the arguments are the
+     * 0-based begin index and the optional end index, which is exclusive. Only the requested part is read unless the
+     * whole clob has already been read.
+     *
+     * @return the substring method
+     */
+    public TemplateModel substring() {
+        return new TemplateMethodModelEx() {
+            public Object exec(List args) throws TemplateModelException {
+                if (args.size() != 1 && args.size() != 2) {
+                    throw new TemplateModelException("Wrong number of arguments: expected 1 or 2, got "
+                            + args.size());
+                }
+
+                long len = getLength();
+                long begin = getIndex(args.get(0), 1);
+                long end = (args.size() == 2) ? getIndex(args.get(1), 2) : len;
+
+                if (begin > len || end > len || begin > end) {
+                    throw new TemplateModelException("Illegal substring range: [" + begin + ", " + end
+                            + ") of " + len + " characters");
+                }
+                if (end - begin > Integer.MAX_VALUE) {
+                    throw new TemplateModelException("Substring is too large: " + (end - begin) + " characters");
+                }
+
+                if (string != null) {
+                    return string.substring((int) begin, (int) end);
+                }
+                if (begin == end) return "";
+                try {
+                    return clob.getSubString(begin + 1, (int) (end - begin));
+                } catch (SQLException e) {
+                    throw new TemplateModelException(e);
+                }
+            }
+        };
+    }
+
+
+    private static long getIndex(Object arg, int pos) throws TemplateModelException {
+        if (!(arg instanceof TemplateNumberModel)) {
+            throw new TemplateModelException("Illegal type of argument #" + pos + ": expected number, got "
+                    + arg.getClass().getName());
+        }
+        long index = ((TemplateNumberModel) arg).getAsNumber().longValue();
+        if (index < 0) {
+            throw new TemplateModelException("Illegal value of argument #" + pos + ": expected non-negative index, "
+                    + "got " + index);
+        }
+        return index;
+    }
+
+
+    /**
+     * Returns the list of available methods and properties, extended by own methods.
+     *
+     * @return the collection of methods and properties
+     */
+    public TemplateCollectionModel keys() {
+        Set keySetEx = super.keySet();
+        keySetEx.add(SUBSTRING_METHOD_NAME);
+        return new CollectionAndSequence(new SimpleSequence(keySetEx, wrapper));
     }
 
 
@@ -77,4 +266,4 @@ public class ClobModel extends BeanModel implements TemplateScalarModel {
     }
 
 
-}
\ No newline at end of file
+}
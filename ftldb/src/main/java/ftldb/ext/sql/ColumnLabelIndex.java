@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+/**
+ * This class maps column labels to their indices without boxing. It is an open addressing hash table of {@code int}s
+ * built once for a result set's labels. If two columns have the same label, the first one is found.
+ */
+public class ColumnLabelIndex {
+
+
+    private final String[] labels;
+    private final int[] slots;
+    private final int mask;
+
+
+    /**
+     * Builds the index for the specified labels.
+     *
+     * @param labels the column labels ordered by position
+     */
+    public ColumnLabelIndex(String[] labels) {
+        this.labels = labels;
+
+        int capacity = 4;
+        while (capacity < labels.length * 2) capacity <<= 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == null || indexOf(labels[i]) != -1) continue;
+            int slot = hash(labels[i]) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            // 0 marks an empty slot, so indices are stored 1-based
+            slots[slot] = i + 1;
+        }
+    }
+
+
+    /**
+     * Returns the specified column's index starting from 0.
+     *
+     * @param label the column's label
+     * @return the column's index or {@code -1} if no column with such label exists
+     */
+    public int indexOf(String label) {
+        if (label == null) return -1;
+        for (int slot = hash(label) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (labels[index].equals(label)) return index;
+        }
+        return -1;
+    }
+
+
+    private static int hash(String s) {
+        int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * This class contains the static result of fetching from a {@link ResultSet} stored by columns. Unlike
+ * {@link FetchedResultSet}, values are not kept as boxed JDBC objects when it can be avoided:
+ * <ul>
+ *     <li>numbers ({@link BigDecimal}, {@link Long}, {@link Integer}) that fit into 64 bits are stored as
+ *     {@code long}s, decimals with their scales as {@code byte}s;
+ *     <li>dates and timestamps with millisecond precision are stored as {@code long}s;
+ *     <li>strings are dictionary encoded, i.e. stored as {@code int} codes, each distinct string once, unless most of
+ *     them are distinct.
+ * </ul>
+ * A column is switched to plain object storage as soon as it gets a value that does not fit. Values are boxed again
+ * only when they are read, and are equal to the fetched ones.
+ *
+ * <p>This representation pays off for large and numeric-heavy results, e.g. dictionary queries. A column is a ready
+ * sequence, so transposing does not copy anything.
+ */
+public class ColumnarResultSet {
+
+
+    public final ResultSetMetaData metaData;
+    public final String[] columnLabels;
+    public final Map columnIndices;
+
+    private final ColumnLabelIndex labelIndex;
+    private final Column[] columns;
+    private final int rowCount;
+
+
+    /**
+     * Fetches the specified result set by columns. Also saves its metadata.
+     *
+     * @param rs the original result set
+     * @throws SQLException if a database access error occurs
+     */
+    public ColumnarResultSet(ResultSet rs) throws SQLException {
+        metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+
+        columnLabels = new String[columnCount];
+        columnIndices = new HashMap(columnLabels.length, 1);
+
+        for (int i = 0; i < columnCount; i++) {
+            columnLabels[i] = metaData.getColumnLabel(i + 1);
+            // if two columns have same labels, save only the 1st one
+            if (columnIndices.get(columnLabels[i]) == null) {
+                columnIndices.put(columnLabels[i], new Integer(i));
+            }
+        }
+        labelIndex = new ColumnLabelIndex(columnLabels);
+
+        columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = new Column();
+        }
+
+        int rows = 0;
+        try {
+            while (rs.next()) {
+                for (int i = 0; i < columnCount; i++) {
+                    Object o = rs.getObject(i + 1);
+                    if (o instanceof ResultSet) {
+                        o = new FetchedResultSet((ResultSet) o);
+                    } else {
+                        ResourceRegistry.registerValue(o);
+                    }
+                    columns[i].add(rows, o);
+                }
+                rows++;
+            }
+        } finally {
+            // nested cursors are closed even if fetching fails
+            rs.close();
+        }
+        rowCount = rows;
+
+        for (int i = 0; i < columnCount; i++) {
+            columns[i].trim(rowCount);
+        }
+    }
+
+
+    /**
+     * Returns the original {@link ResultSet}'s metadata.
+     *
+     * @return the metadata
+     */
+    public ResultSetMetaData getMetaData() {
+        return metaData;
+    }
+
+
+    /**
+     * Returns the number of fetched rows.
+     *
+     * @return the row count
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the column count
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+
+    /**
+     * Returns the value of the specified cell. Primitive values are boxed into the types they were fetched as.
+     *
+     * @param rowIndex the row's index starting from 0
+     * @param columnIndex the column's index starting from 0
+     * @return the cell's value
+     */
+    public Object getValue(int rowIndex, int columnIndex) {
+        return columns[columnIndex].get(rowIndex);
+    }
+
+
+    /**
+     * Returns the specified column's index starting from 0. This index is used to access FTL sequences.
+     *
+     * @param label the column's label
+     * @return the column's index or {@code null} if no column with such label exists
+     */
+    public Integer getColumnIndex(String label) {
+        return (Integer) columnIndices.get(label);
+    }
+
+
+    /**
+     * Returns the specified column's index starting from 0 without creating objects.
+     *
+     * @param label the column's label
+     * @return the column's index or {@code -1} if no column with such label exists
+     */
+    public int indexOf(String label) {
+        return labelIndex.indexOf(label);
+    }
+
+
+    /**
+     * Returns the storage kind of the specified column, which is helpful for debugging.
+     *
+     * @param columnIndex the column's index starting from 0
+     * @return one of {@code "number"}, {@code "date"}, {@code "string"}, {@code "object"} or {@code "empty"}
+     */
+    public String getStorageKind(int columnIndex) {
+        return columns[columnIndex].getStorageKind();
+    }
+
+
+    // Storage kinds and value classes of a column.
+    private static final int EMPTY = 0;
+    private static final int NUMBER = 1;
+    private static final int DATE = 2;
+    private static final int STRING = 3;
+    private static final int OBJECT = 4;
+
+    private static final int BIG_DECIMAL = 1;
+    private static final int LONG = 2;
+    private static final int INTEGER = 3;
+    private static final int TIMESTAMP = 4;
+    private static final int SQL_DATE = 5;
+    private static final int UTIL_DATE = 6;
+
+
+    // The dictionary of a string column is dropped if it grows beyond this size and half of the column.
+    private static final int MIN_DICTIONARY_CHECK_SIZE = 256;
+
+
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+
+    /**
+     * A column of values. It starts empty, takes a primitive storage suitable for the first non-null value and falls
+     * back to an {@code Object[]} when a value does not fit.
+     */
+    private static final class Column {
+
+        private int kind = EMPTY;
+        private int valueClass;
+        private int capacity = 64;
+
+        private long[] longs;
+        private byte[] scales;
+        private int[] codes;
+        private Object[] objects;
+        private boolean[] nulls;
+
+        private Map dictionaryCodes;
+        private String[] dictionary;
+        private int dictionarySize;
+
+        private void add(int row, Object o) {
+            if (kind == EMPTY) {
+                if (o == null) return;
+                init(row, o);
+            }
+
+            if (row >= capacity) grow(row);
+
+            if (o == null) {
+                if (kind == OBJECT) return;
+                if (nulls == null) nulls = new boolean[capacity];
+                nulls[row] = true;
+                return;
+            }
+
+            if (!put(row, o)) {
+                toObjects(row);
+                objects[row] = o;
+            }
+        }
+
+        private void init(int rows, Object o) {
+            // the preceding rows are nulls
+            capacity = Math.max(capacity, rows + 1);
+            if (o instanceof BigDecimal || o instanceof Long || o instanceof Integer) {
+                kind = NUMBER;
+                valueClass = (o instanceof BigDecimal) ? BIG_DECIMAL : (o instanceof Long) ? LONG : INTEGER;
+                longs = new long[capacity];
+                if (valueClass == BIG_DECIMAL) scales = new byte[capacity];
+            } else if (o instanceof Date) {
+                kind = DATE;
+                valueClass = (o instanceof Timestamp) ? TIMESTAMP : (o instanceof java.sql.Date) ? SQL_DATE
+                        : UTIL_DATE;
+                longs = new long[capacity];
+            } else if (o instanceof String) {
+                kind = STRING;
+                codes = new int[capacity];
+                dictionaryCodes = new HashMap();
+                dictionary = new String[16];
+            } else {
+                kind = OBJECT;
+                objects = new Object[capacity];
+            }
+            if (rows > 0 && kind != OBJECT) {
+                nulls = new boolean[capacity];
+                for (int i = 0; i < rows; i++) nulls[i] = true;
+            }
+        }
+
+        private boolean put(int row, Object o) {
+            switch (kind) {
+                case NUMBER:
+                    if (valueClass == BIG_DECIMAL && o.getClass() == BigDecimal.class) {
+                        BigDecimal d = (BigDecimal) o;
+                        BigInteger unscaled = d.unscaledValue();
+                        if (d.scale() < Byte.MIN_VALUE || d.scale() > Byte.MAX_VALUE
+                                || unscaled.compareTo(MIN_LONG) < 0 || unscaled.compareTo(MAX_LONG) > 0) {
+                            return false;
+                        }
+                        longs[row] = unscaled.longValue();
+                        scales[row] = (byte) d.scale();
+                        return true;
+                    }
+                    if (valueClass == LONG && o.getClass() == Long.class) {
+                        longs[row] = ((Long) o).longValue();
+                        return true;
+                    }
+                    if (valueClass == INTEGER && o.getClass() == Integer.class) {
+                        longs[row] = ((Integer) o).intValue();
+                        return true;
+                    }
+                    return false;
+                case DATE:
+                    if (valueClass == TIMESTAMP && o.getClass() == Timestamp.class) {
+                        // sub-millisecond precision would be lost
+                        if (((Timestamp) o).getNanos() % 1000000 != 0) return false;
+                        longs[row] = ((Timestamp) o).getTime();
+                        return true;
+                    }
+                    if ((valueClass == SQL_DATE && o.getClass() == java.sql.Date.class)
+                            || (valueClass == UTIL_DATE && o.getClass() == Date.class)) {
+                        longs[row] = ((Date) o).getTime();
+                        return true;
+                    }
+                    return false;
+                case STRING:
+                    if (!(o instanceof String)) return false;
+                    int code = encode((String) o, row);
+                    if (code == -1) return false;
+                    codes[row] = code;
+                    return true;
+                default:
+                    objects[row] = o;
+                    return true;
+            }
+        }
+
+        private int encode(String s, int row) {
+            Integer code = (Integer) dictionaryCodes.get(s);
+            if (code != null) return code.intValue();
+
+            // mostly distinct strings gain nothing from the dictionary
+            if (dictionarySize >= MIN_DICTIONARY_CHECK_SIZE && dictionarySize > row / 2) return -1;
+
+            if (dictionarySize == dictionary.length) {
+                String[] newDictionary = new String[dictionarySize * 2];
+                System.arraycopy(dictionary, 0, newDictionary, 0, dictionarySize);
+                dictionary = newDictionary;
+            }
+            dictionary[dictionarySize] = s;
+            dictionaryCodes.put(s, new Integer(dictionarySize));
+            return dictionarySize++;
+        }
+
+        private Object get(int row) {
+            if (kind == EMPTY) return null;
+            if (kind == OBJECT) return objects[row];
+            if (nulls != null && nulls[row]) return null;
+
+            switch (kind) {
+                case NUMBER:
+                    if (valueClass == BIG_DECIMAL) return BigDecimal.valueOf(longs[row], scales[row]);
+                    if (valueClass == LONG) return new Long(longs[row]);
+                    return new Integer((int) longs[row]);
+                case DATE:
+                    if (valueClass == TIMESTAMP) return new Timestamp(longs[row]);
+                    if (valueClass == SQL_DATE) return new java.sql.Date(longs[row]);
+                    return new Date(longs[row]);
+                default:
+                    return dictionary[codes[row]];
+            }
+        }
+
+        private void grow(int row) {
+            int newCapacity = capacity;
+            while (newCapacity <= row) newCapacity *= 2;
+            resize(newCapacity);
+        }
+
+        private void trim(int rows) {
+            if (kind != EMPTY && rows < capacity) resize(rows);
+            dictionaryCodes = null;
+        }
+
+        private void resize(int newCapacity) {
+            int n = Math.min(capacity, newCapacity);
+            if (longs != null) {
+                long[] a = new long[newCapacity];
+                System.arraycopy(longs, 0, a, 0, n);
+                longs = a;
+            }
+            if (scales != null) {
+                byte[] a = new byte[newCapacity];
+                System.arraycopy(scales, 0, a, 0, n);
+                scales = a;
+            }
+            if (codes != null) {
+                int[] a = new int[newCapacity];
+                System.arraycopy(codes, 0, a, 0, n);
+                codes = a;
+            }
+            if (objects != null) {
+                Object[] a = new Object[newCapacity];
+                System.arraycopy(objects, 0, a, 0, n);
+                objects = a;
+            }
+            if (nulls != null) {
+                boolean[] a = new boolean[newCapacity];
+                System.arraycopy(nulls, 0, a, 0, n);
+                nulls = a;
+            }
+            capacity = newCapacity;
+        }
+
+        private void toObjects(int rows) {
+            Object[] a = new Object[capacity];
+            for (int i = 0; i < rows; i++) {
+                a[i] = get(i);
+            }
+            kind = OBJECT;
+            objects = a;
+            longs = null;
+            scales = null;
+            codes = null;
+            nulls = null;
+            dictionaryCodes = null;
+            dictionary = null;
+        }
+
+        private String getStorageKind() {
+            switch (kind) {
+                case NUMBER: return "number";
+                case DATE: return "date";
+                case STRING: return "string";
+                case OBJECT: return "object";
+                default: return "empty";
+            }
+        }
+
+    }
+
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.template.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * This class wraps a row of {@link ColumnarResultSet} and adapts it for using in FTL both as a sequence and a hash of
+ * cells. Cells are read from the columns and wrapped on first access, and then reused.
+ */
+public class ColumnarResultSetRowModel extends WrappingTemplateModel implements TemplateSequenceModel,
+        TemplateHashModelEx {
+
+
+    public final ColumnarResultSet resultSet;
+    public final int rowIndex;
+
+    private TemplateModel[] cells;
+
+
+    public ColumnarResultSetRowModel(ColumnarResultSet crs, int index, ObjectWrapper wrapper) {
+        super(wrapper);
+        this.resultSet = crs;
+        this.rowIndex = index;
+    }
+
+
+    /**
+     * Retrieves the i-th column in this row.
+     *
+     * @return the value of column at the specified index or {@code null} if the index is out of range
+     */
+    public TemplateModel get(int index) throws TemplateModelException {
+        if (index < 0 || index >= resultSet.getColumnCount()) return null;
+        return getCell(index);
+    }
+
+
+    /**
+     * Retrieves the value of the specified column in this row.
+     *
+     * @return the value of the specified column or {@code null} if there is no such column
+     */
+    public TemplateModel get(String key) throws TemplateModelException {
+        int index = resultSet.indexOf(key);
+        if (index == -1) return null;
+        return getCell(index);
+    }
+
+
+    private TemplateModel getCell(int index) throws TemplateModelException {
+        if (cells == null) cells = new TemplateModel[resultSet.getColumnCount()];
+
+        TemplateModel cell = cells[index];
+        if (cell == null) {
+            cell = wrap(resultSet.getValue(rowIndex, index));
+            cells[index] = cell;
+        }
+        return cell;
+    }
+
+
+    /**
+     * Returns the row length.
+     *
+     * @return the number of columns in this row
+     */
+    public int size() {
+        return resultSet.getColumnCount();
+    }
+
+
+    /**
+     * Returns a list of column names in this row.
+     *
+     * @return a list of column names ordered by position
+     */
+    public TemplateCollectionModel keys() throws TemplateModelException {
+        return new SimpleCollection(Arrays.asList(resultSet.columnLabels), getObjectWrapper());
+    }
+
+
+    /**
+     * Returns a list of values in this row.
+     *
+     * @return the list of values ordered by position
+     */
+    public TemplateCollectionModel values() throws TemplateModelException {
+        List values = new ArrayList(resultSet.getColumnCount());
+        for (int i = 0; i < resultSet.getColumnCount(); i++) {
+            values.add(resultSet.getValue(rowIndex, i));
+        }
+        return new SimpleCollection(values, getObjectWrapper());
+    }
+
+
+    /**
+     * Determines whether the row is empty (contains no columns).
+     *
+     * @return {@code true} if the row has no columns
+     */
+    public boolean isEmpty() throws TemplateModelException {
+        return resultSet.getColumnCount() == 0;
+    }
+
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.template.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class adapts {@link ColumnarResultSet} for using in FTL both as a sequence and a hash of columns. It is a view
+ * over the result set's column storage: a column is a sequence reading its values on access, so transposing copies
+ * nothing.
+ */
+public class ColumnarResultSetTransposedModel extends WrappingTemplateModel implements TemplateSequenceModel,
+        TemplateHashModelEx {
+
+
+    public final ColumnarResultSet resultSet;
+
+
+    public ColumnarResultSetTransposedModel(ColumnarResultSet crs, ObjectWrapper wrapper) {
+        super(wrapper);
+        this.resultSet = crs;
+    }
+
+
+    /**
+     * Retrieves the i-th column of this result set.
+     *
+     * @return the column at the specified index or {@code null} if the index is out of range
+     */
+    public TemplateModel get(int index) throws TemplateModelException {
+        if (index < 0 || index >= resultSet.getColumnCount()) return null;
+        return new ColumnModel(index);
+    }
+
+
+    /**
+     * Retrieves the specified column in this result set.
+     *
+     * @return the specified column as a sequence or {@code null} if there is no such column
+     */
+    public TemplateModel get(String key) throws TemplateModelException {
+        int index = resultSet.indexOf(key);
+        if (index == -1) return null;
+        return new ColumnModel(index);
+    }
+
+
+    /**
+     * Returns the row length.
+     *
+     * @return the number of columns in this result set
+     */
+    public int size() {
+        return resultSet.getColumnCount();
+    }
+
+
+    /**
+     * Returns a list of column names in this result set.
+     *
+     * @return a list of column names ordered by position
+     */
+    public TemplateCollectionModel keys() throws TemplateModelException {
+        return new SimpleCollection(java.util.Arrays.asList(resultSet.columnLabels), getObjectWrapper());
+    }
+
+
+    /**
+     * Returns a list of columns in this result set.
+     *
+     * @return the list of column sequences ordered by position
+     */
+    public TemplateCollectionModel values() throws TemplateModelException {
+        List columns = new ArrayList(resultSet.getColumnCount());
+        for (int i = 0; i < resultSet.getColumnCount(); i++) {
+            columns.add(new ColumnModel(i));
+        }
+        return new SimpleCollection(columns, getObjectWrapper());
+    }
+
+
+    /**
+     * Determines whether the result set contains no columns.
+     *
+     * @return always {@code false}
+     */
+    public boolean isEmpty() throws TemplateModelException {
+        return resultSet.getColumnCount() == 0;
+    }
+
+
+    private class ColumnModel implements TemplateSequenceModel {
+
+        private final int columnIndex;
+
+        private ColumnModel(int columnIndex) {
+            this.columnIndex = columnIndex;
+        }
+
+        public TemplateModel get(int index) throws TemplateModelException {
+            if (index < 0 || index >= resultSet.getRowCount()) return null;
+            return wrap(resultSet.getValue(index, columnIndex));
+        }
+
+        public int size() {
+            return resultSet.getRowCount();
+        }
+
+    }
+
+
+}
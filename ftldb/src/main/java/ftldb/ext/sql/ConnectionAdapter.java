@@ -20,6 +20,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 
 /**
@@ -30,8 +31,19 @@ public class ConnectionAdapter {
 
 
     private final Connection connection;
+    private final StatementCache statementCache;
     private QueryExecutor qe;
     private CallExecutor ce;
+    private BatchExecutor be;
+
+    // The url and properties the connection has been opened with, if it can be reopened.
+    String url;
+    Properties info;
+
+    // The pool the connection belongs to, its key in the pool and whether it is in use.
+    volatile ConnectionPool pool;
+    Object poolKey;
+    boolean leased;
 
 
     /**
@@ -41,6 +53,7 @@ public class ConnectionAdapter {
      */
     public ConnectionAdapter(Connection connection) {
         this.connection = connection;
+        this.statementCache = new StatementCache(connection, StatementCache.DEFAULT_MAX_SIZE);
     }
 
 
@@ -53,17 +66,90 @@ public class ConnectionAdapter {
     }
 
 
+    /**
+     * Returns the default number of rows fetched in one round trip by queries executed via this connection.
+     *
+     * @return the default fetch size, {@code 0} means the driver's default
+     */
+    public int getFetchSize() {
+        return getQueryExecutor().getFetchSize();
+    }
+
+
+    /**
+     * Sets the default number of rows fetched in one round trip by queries executed via this connection. For Oracle
+     * this is the row prefetch size, which is 10 by default in the driver.
+     *
+     * @param fetchSize the default fetch size, {@code 0} means the driver's default
+     */
+    public void setFetchSize(int fetchSize) {
+        getQueryExecutor().setFetchSize(fetchSize);
+    }
+
+
+    /**
+     * Returns the cache of prepared and callable statements executed via this connection. Its hit and miss counters
+     * help to tune the cache size.
+     *
+     * @return the statement cache
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+
+    /**
+     * Sets the maximum number of cached statements. The least recently used statements are closed when the cache is
+     * full.
+     *
+     * @param size the maximum number of cached statements, {@code 0} disables caching
+     */
+    public void setStatementCacheSize(int size) {
+        statementCache.setMaxSize(size);
+    }
+
+
     private synchronized QueryExecutor getQueryExecutor() {
         if (qe == null) {
-            qe = new QueryExecutor(connection);
+            qe = new QueryExecutor(connection, statementCache);
         }
         return qe;
     }
 
 
+    private synchronized BatchExecutor getBatchExecutor() {
+        if (be == null) {
+            be = new BatchExecutor(statementCache);
+        }
+        return be;
+    }
+
+
+    /**
+     * Returns the default number of DML statements sent to the database in one round trip by
+     * {@link #batch(String, List)}.
+     *
+     * @return the default batch size
+     */
+    public int getBatchSize() {
+        return getBatchExecutor().getBatchSize();
+    }
+
+
+    /**
+     * Sets the default number of DML statements sent to the database in one round trip by
+     * {@link #batch(String, List)}.
+     *
+     * @param batchSize the default batch size, must be positive
+     */
+    public void setBatchSize(int batchSize) {
+        getBatchExecutor().setBatchSize(batchSize);
+    }
+
+
     private synchronized CallExecutor getCallExecutor() {
         if (ce == null) {
-            ce = new CallExecutor(connection);
+            ce = new CallExecutor(statementCache);
         }
         return ce;
     }
@@ -94,6 +180,136 @@ public class ConnectionAdapter {
     }
 
 
+    /**
+     * Executes an SQL query with bind variables with the aid of the inner {@link QueryExecutor}, fetching the specified
+     * number of rows in one round trip.
+     *
+     * @param sql the SQL-query to be executed
+     * @param binds the list of bind variable values
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the connection's default
+     * @return the query result wrapped into {@link FetchedResultSetTransposedModel}
+     * @throws SQLException if a database access error occurs
+     */
+    public FetchedResultSet query(String sql, List binds, int fetchSize) throws SQLException {
+        return getQueryExecutor().executeQuery(sql, binds, fetchSize);
+    }
+
+
+    /**
+     * Executes an SQL query with the aid of the inner {@link QueryExecutor} and fetches its result by columns.
+     *
+     * @param sql the SQL-query to be executed
+     * @return the query result wrapped into {@link ColumnarResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public ColumnarResultSet queryColumnar(String sql) throws SQLException {
+        return queryColumnar(sql, null, 0);
+    }
+
+
+    /**
+     * Executes an SQL query with bind variables with the aid of the inner {@link QueryExecutor} and fetches its result
+     * by columns.
+     *
+     * @param sql the SQL-query to be executed
+     * @param binds the list of bind variable values
+     * @return the query result wrapped into {@link ColumnarResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public ColumnarResultSet queryColumnar(String sql, List binds) throws SQLException {
+        return queryColumnar(sql, binds, 0);
+    }
+
+
+    /**
+     * Executes an SQL query with bind variables with the aid of the inner {@link QueryExecutor} and fetches its result
+     * by columns, fetching the specified number of rows in one round trip.
+     *
+     * @param sql the SQL-query to be executed
+     * @param binds the list of bind variable values
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the connection's default
+     * @return the query result wrapped into {@link ColumnarResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public ColumnarResultSet queryColumnar(String sql, List binds, int fetchSize) throws SQLException {
+        return getQueryExecutor().executeColumnarQuery(sql, binds, fetchSize);
+    }
+
+
+    /**
+     * Executes an SQL query with the aid of the inner {@link QueryExecutor} and returns its cursor without fetching.
+     * Rows are fetched while iterating in FTL, so the result can be iterated only once.
+     *
+     * @param sql the SQL-query to be executed
+     * @return the query cursor wrapped into {@link StreamingResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public StreamingResultSet stream(String sql) throws SQLException {
+        return stream(sql, null, 0);
+    }
+
+
+    /**
+     * Executes an SQL query with bind variables with the aid of the inner {@link QueryExecutor} and returns its cursor
+     * without fetching. Rows are fetched while iterating in FTL, so the result can be iterated only once.
+     *
+     * @param sql the SQL-query to be executed
+     * @param binds the list of bind variable values
+     * @return the query cursor wrapped into {@link StreamingResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public StreamingResultSet stream(String sql, List binds) throws SQLException {
+        return stream(sql, binds, 0);
+    }
+
+
+    /**
+     * Executes an SQL query with bind variables with the aid of the inner {@link QueryExecutor} and returns its cursor
+     * without fetching. Rows are fetched while iterating in FTL, so the result can be iterated only once.
+     *
+     * @param sql the SQL-query to be executed
+     * @param binds the list of bind variable values
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the connection's default
+     * @return the query cursor wrapped into {@link StreamingResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public StreamingResultSet stream(String sql, List binds, int fetchSize) throws SQLException {
+        return getQueryExecutor().executeStreamingQuery(sql, binds, fetchSize);
+    }
+
+
+    /**
+     * Executes independent queries at the same time, each one on a new connection to the same database, with the aid
+     * of {@link ParallelQueryExecutor}. Each query is either an SQL string or a list of an SQL string and a list of
+     * bind variable values. The results are fetched in the background and waited for when they are accessed.
+     *
+     * <p>The queries run in separate sessions, so they do not see the changes made in this connection and not
+     * committed yet. This connection is in the manual commit mode, so commit the changes before the call if the
+     * queries depend on them. Only if the queries fall back to sequential execution on this connection (see
+     * {@link ParallelQueryExecutor}), they see the changes.
+     *
+     * <p>Usage example in FTL:
+     * <pre>
+     * {@code
+     * <#assign res = conn.parallelQuery({
+     *   "cols" : ["select * from user_tab_columns where table_name = :1", [tab]],
+     *   "cons" : ["select * from user_constraints where table_name = :1", [tab]],
+     *   "idx" : ["select * from user_indexes where table_name = :1", [tab]]
+     * })/>
+     * <#list res.cols.hash_rows as c>...</#list>
+     * }
+     * </pre>
+     *
+     * @param queries the queries mapped to their names
+     * @return the pending results
+     * @throws SQLException if a query is malformed or, if the queries are executed sequentially, a database access
+     * error occurs
+     */
+    public ParallelQueryResults parallelQuery(Map queries) throws SQLException {
+        return new ParallelQueryExecutor(this, Connector.getQueryWorkers()).execute(queries);
+    }
+
+
     /**
      * Executes a callable statement with the aid of the inner {@link CallExecutor}.
      *
@@ -108,6 +324,35 @@ public class ConnectionAdapter {
     }
 
 
+    /**
+     * Executes a DML statement for each list of bind variable values with the aid of the inner {@link BatchExecutor}.
+     * Statements are sent to the database in batches of the default size.
+     *
+     * @param sql the DML statement to be executed
+     * @param bindLists the list of lists of bind variable values
+     * @return the update counts in order of the bind lists
+     * @throws SQLException if a database access error occurs
+     */
+    public int[] batch(String sql, List bindLists) throws SQLException {
+        return getBatchExecutor().executeBatch(sql, bindLists);
+    }
+
+
+    /**
+     * Executes a DML statement for each list of bind variable values with the aid of the inner {@link BatchExecutor}.
+     * Statements are sent to the database in batches of the specified size.
+     *
+     * @param sql the DML statement to be executed
+     * @param bindLists the list of lists of bind variable values
+     * @param batchSize the number of statements sent in one round trip, must be positive
+     * @return the update counts in order of the bind lists
+     * @throws SQLException if a database access error occurs
+     */
+    public int[] batch(String sql, List bindLists, int batchSize) throws SQLException {
+        return getBatchExecutor().executeBatch(sql, bindLists, batchSize);
+    }
+
+
     /**
      * Commits transaction in the inner JDBC connection.
      *
@@ -129,13 +374,40 @@ public class ConnectionAdapter {
 
 
     /**
-     * Closes the inner JDBC connection.
+     * Closes the cached statements and the inner JDBC connection. A pooled connection is returned to its pool instead,
+     * see {@link ConnectionPool}.
      *
      * @throws SQLException if a database access error occurs
      */
     public void close() throws SQLException {
+        ResourceRegistry.unregister(this);
+        ConnectionPool p = pool;
+        if (p != null) {
+            p.release(this);
+            return;
+        }
+        statementCache.clear();
         connection.close();
     }
 
 
+    /**
+     * Determines whether the connection is taken from a {@link ConnectionPool}.
+     *
+     * @return {@code true} if the connection is returned to a pool on closing
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+
+    void closeConnection() {
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+
 }
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+
+/**
+ * This class is a pool of JDBC connections keyed by the database url and the connection properties, i.e. the user and
+ * the password. Connections are kept open along with their {@link ConnectionAdapter}s, so a reused connection also
+ * keeps its cached statements.
+ *
+ * <p>A connection is returned to the pool when its adapter is closed or, at the latest, when the template processing
+ * that borrowed it finishes (see {@link ResourceRegistry}). Uncommitted changes are rolled back on return.
+ *
+ * <p>Idle connections are closed when they have not been used for the specified time. There are no background
+ * threads: expired connections are closed when the pool is accessed. An idle connection is validated before reuse
+ * with the specified query or, if it is not set, by checking that the connection is not closed.
+ */
+public class ConnectionPool {
+
+
+    /**
+     * The default time an idle connection is kept open, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_IDLE_TIME = 600000;
+
+
+    private final int maxSize;
+    private final long maxIdleTime;
+    private final String validationQuery;
+    private final HashMap pools = new HashMap();
+    private boolean closed;
+
+    private long createdCount;
+    private long reusedCount;
+    private long evictedCount;
+    private long invalidCount;
+
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param maxSize the maximum number of connections with the same url and properties, either in use or idle
+     * @param maxIdleTime the time an idle connection is kept open in milliseconds, {@code 0} means unlimited
+     * @param validationQuery the query that checks an idle connection before reuse, e.g. {@code select 1 from dual};
+     * {@code null} means checking that the connection is not closed
+     */
+    public ConnectionPool(int maxSize, long maxIdleTime, String validationQuery) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Connection pool size must be positive: " + maxSize);
+        }
+        if (maxIdleTime < 0) {
+            throw new IllegalArgumentException("Connection pool idle time must be non-negative: " + maxIdleTime);
+        }
+        this.maxSize = maxSize;
+        this.maxIdleTime = maxIdleTime;
+        this.validationQuery = (validationQuery == null || "".equals(validationQuery.trim())) ? null
+                : validationQuery;
+    }
+
+
+    /**
+     * Returns an idle connection with the specified url and properties or opens a new one. The connection is in the
+     * manual commit mode.
+     *
+     * @param url the database url
+     * @param info the connection properties
+     * @return the connection's adapter
+     * @throws SQLException if a database access error occurs or all the connections with the specified url and
+     * properties are in use
+     */
+    public ConnectionAdapter getConnection(String url, Properties info) throws SQLException {
+        Key key = new Key(url, info);
+        closeAll(evictIdleConnections(System.currentTimeMillis()));
+
+        while (true) {
+            ConnectionAdapter adapter;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                Pool p = getPool(key);
+                if (!p.idle.isEmpty()) {
+                    adapter = ((Idle) p.idle.removeFirst()).adapter;
+                    adapter.leased = true;
+                    p.active++;
+                } else if (p.active < maxSize) {
+                    // reserve a slot, the connection itself is opened outside the lock
+                    adapter = null;
+                    p.active++;
+                } else {
+                    throw new SQLException("Connection pool is exhausted: " + maxSize + " connection(s) to " + url
+                            + " are in use");
+                }
+            }
+
+            if (adapter == null) {
+                adapter = open(key);
+                synchronized (this) {
+                    createdCount++;
+                }
+            } else if (isValid(adapter)) {
+                synchronized (this) {
+                    reusedCount++;
+                }
+            } else {
+                synchronized (this) {
+                    invalidCount++;
+                    adapter.leased = false;
+                    getPool(key).active--;
+                }
+                adapter.closeConnection();
+                continue;
+            }
+
+            return adapter;
+        }
+    }
+
+
+    private ConnectionAdapter open(Key key) throws SQLException {
+        try {
+            Connection connection = DriverManager.getConnection(key.url, key.info);
+            connection.setAutoCommit(false);
+            ConnectionAdapter adapter = new ConnectionAdapter(connection);
+            adapter.pool = this;
+            adapter.poolKey = key;
+            adapter.leased = true;
+            return adapter;
+        } catch (SQLException e) {
+            synchronized (this) {
+                getPool(key).active--;
+            }
+            throw e;
+        }
+    }
+
+
+    private boolean isValid(ConnectionAdapter adapter) {
+        Connection connection = adapter.getConnection();
+        try {
+            if (connection.isClosed()) return false;
+            if (validationQuery != null) {
+                Statement st = connection.createStatement();
+                try {
+                    st.executeQuery(validationQuery).close();
+                } finally {
+                    st.close();
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Returns the specified connection to the pool. Uncommitted changes are rolled back. If the rollback fails or the
+     * pool is closed, the connection is closed.
+     *
+     * @param adapter the connection's adapter
+     */
+    void release(ConnectionAdapter adapter) {
+        synchronized (this) {
+            if (!adapter.leased) return;
+            adapter.leased = false;
+        }
+
+        boolean valid;
+        try {
+            adapter.getConnection().rollback();
+            valid = true;
+        } catch (SQLException e) {
+            valid = false;
+        }
+
+        synchronized (this) {
+            Pool p = getPool((Key) adapter.poolKey);
+            p.active--;
+            if (valid && !closed) {
+                // the most recently used connections are reused first, so the rest can expire
+                p.idle.addFirst(new Idle(adapter, System.currentTimeMillis()));
+                return;
+            }
+        }
+        adapter.closeConnection();
+    }
+
+
+    /**
+     * Removes the specified connection from the pool without closing it. The connection is not returned to the pool
+     * any more and its adapter closes it as a regular connection. This is used for connections that outlive template
+     * processing, e.g. the default connection.
+     *
+     * @param adapter the connection's adapter
+     */
+    void detach(ConnectionAdapter adapter) {
+        synchronized (this) {
+            if (!adapter.leased) return;
+            adapter.leased = false;
+            getPool((Key) adapter.poolKey).active--;
+            adapter.pool = null;
+            adapter.poolKey = null;
+        }
+    }
+
+
+    /**
+     * Closes the idle connections that have not been used for the maximum idle time.
+     *
+     * @return the number of closed connections
+     */
+    public int evictIdleConnections() {
+        List expired = evictIdleConnections(System.currentTimeMillis());
+        closeAll(expired);
+        return expired.size();
+    }
+
+
+    private synchronized List evictIdleConnections(long now) {
+        if (maxIdleTime == 0) return Collections.EMPTY_LIST;
+
+        List expired = new ArrayList();
+        for (Iterator it = pools.values().iterator(); it.hasNext(); ) {
+            LinkedList idle = ((Pool) it.next()).idle;
+            // the least recently used connections are at the end
+            while (!idle.isEmpty() && now - ((Idle) idle.getLast()).since >= maxIdleTime) {
+                expired.add(((Idle) idle.removeLast()).adapter);
+            }
+        }
+        evictedCount += expired.size();
+        return expired;
+    }
+
+
+    private static void closeAll(List adapters) {
+        for (Iterator it = adapters.iterator(); it.hasNext(); ) {
+            ((ConnectionAdapter) it.next()).closeConnection();
+        }
+    }
+
+
+    private Pool getPool(Key key) {
+        Pool p = (Pool) pools.get(key);
+        if (p == null) {
+            p = new Pool();
+            pools.put(key, p);
+        }
+        return p;
+    }
+
+
+    /**
+     * Closes all the idle connections. Connections in use are closed when they are returned.
+     */
+    public void close() {
+        List idle = new ArrayList();
+        synchronized (this) {
+            closed = true;
+            for (Iterator it = pools.values().iterator(); it.hasNext(); ) {
+                Pool p = (Pool) it.next();
+                for (Iterator iit = p.idle.iterator(); iit.hasNext(); ) {
+                    idle.add(((Idle) iit.next()).adapter);
+                }
+                p.idle.clear();
+            }
+        }
+        closeAll(idle);
+    }
+
+
+    /**
+     * Returns the maximum number of connections with the same url and properties.
+     *
+     * @return the maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Returns the time an idle connection is kept open.
+     *
+     * @return the maximum idle time in milliseconds, {@code 0} means unlimited
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+
+    /**
+     * Returns the query that checks an idle connection before reuse.
+     *
+     * @return the validation query or {@code null} if it is not set
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+
+    /**
+     * Returns the number of connections in use.
+     *
+     * @return the active connection count
+     */
+    public synchronized int getActiveCount() {
+        int count = 0;
+        for (Iterator it = pools.values().iterator(); it.hasNext(); ) {
+            count += ((Pool) it.next()).active;
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the number of idle connections.
+     *
+     * @return the idle connection count
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Iterator it = pools.values().iterator(); it.hasNext(); ) {
+            count += ((Pool) it.next()).idle.size();
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the pool statistics that are helpful for debugging.
+     *
+     * @return the connection counts and counters
+     */
+    public synchronized String toString() {
+        return "ConnectionPool(active=" + getActiveCount() + "; idle=" + getIdleCount() + "; maxSize=" + maxSize
+                + "; created=" + createdCount + "; reused=" + reusedCount + "; evicted=" + evictedCount
+                + "; invalid=" + invalidCount + ")";
+    }
+
+
+    private static final class Key {
+
+        private final String url;
+        private final Properties info;
+
+        private Key(String url, Properties info) {
+            this.url = url;
+            this.info = (Properties) info.clone();
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return url.equals(k.url) && info.equals(k.info);
+        }
+
+        public int hashCode() {
+            return 31 * url.hashCode() + info.hashCode();
+        }
+
+    }
+
+
+    private static final class Pool {
+
+        private final LinkedList idle = new LinkedList();
+        private int active;
+
+    }
+
+
+    private static final class Idle {
+
+        private final ConnectionAdapter adapter;
+        private final long since;
+
+        private Idle(ConnectionAdapter adapter, long since) {
+            this.adapter = adapter;
+            this.since = since;
+        }
+
+    }
+
+
+}
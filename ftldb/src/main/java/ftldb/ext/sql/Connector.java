@@ -19,6 +19,9 @@ package ftldb.ext.sql;
 import freemarker.core.Environment;
 import freemarker.ext.beans.BeanModel;
 import freemarker.template.*;
+import ftldb.Configurator;
+import ftldb.DefaultConfiguration;
+import ftldb.ext.WorkerPool;
 
 import java.io.IOException;
 import java.sql.Connection;
@@ -40,12 +43,29 @@ public class Connector {
     private static ConnectionAdapter defaultConnection;
 
 
+    // The url of the server-side internal connection, which is never pooled.
+    private static final String DEFAULT_CONNECTION_URL = "jdbc:default:connection";
+
+
     private static ConnectionAdapter newConnection(String url, Properties info)
             throws TemplateModelException {
         try {
-            Connection connection = DriverManager.getConnection(url, info);
-            connection.setAutoCommit(false);
-            return new ConnectionAdapter(connection);
+            ConnectionPool pool = getConnectionPool();
+            ConnectionAdapter adapter;
+            if (pool != null && !DEFAULT_CONNECTION_URL.equals(url)) {
+                adapter = pool.getConnection(url, info);
+            } else {
+                Connection connection = DriverManager.getConnection(url, info);
+                connection.setAutoCommit(false);
+                adapter = new ConnectionAdapter(connection);
+            }
+            // the server-side connection belongs to the session and can't be reopened by another thread
+            if (!DEFAULT_CONNECTION_URL.equals(url)) {
+                adapter.url = url;
+                adapter.info = (Properties) info.clone();
+            }
+            configure(adapter);
+            return adapter;
         } catch (SQLException e) {
             throw new TemplateModelException(e);
         }
@@ -68,7 +88,58 @@ public class Connector {
 
 
     private static ConnectionAdapter newConnection() throws TemplateModelException {
-        return newConnection("jdbc:default:connection");
+        return newConnection(DEFAULT_CONNECTION_URL);
+    }
+
+
+    /**
+     * Opens a new connection with the same url, properties and fetch size as the specified one, or takes it from the
+     * connection pool if it is enabled.
+     *
+     * @param origin the original connection
+     * @return the new connection
+     * @throws SQLException if a database access error occurs or the original connection can't be reopened
+     */
+    static ConnectionAdapter reopen(ConnectionAdapter origin) throws SQLException {
+        if (origin.url == null) {
+            throw new SQLException("Unable to reopen connection: its url is unknown");
+        }
+        ConnectionAdapter adapter;
+        try {
+            adapter = newConnection(origin.url, origin.info);
+        } catch (TemplateModelException e) {
+            if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+            throw (SQLException) new SQLException(e.getMessage()).initCause(e);
+        }
+        adapter.setFetchSize(origin.getFetchSize());
+        return adapter;
+    }
+
+
+    /**
+     * Returns the configuration's worker threads for parallel queries.
+     *
+     * @return the worker pool or {@code null} if parallel queries are disabled
+     */
+    static WorkerPool getQueryWorkers() {
+        Configuration cfg = Configurator.getConfiguration();
+        return (cfg instanceof DefaultConfiguration) ? ((DefaultConfiguration) cfg).getQueryWorkers() : null;
+    }
+
+
+    private static ConnectionPool getConnectionPool() {
+        Configuration cfg = Configurator.getConfiguration();
+        return (cfg instanceof DefaultConfiguration) ? ((DefaultConfiguration) cfg).getConnectionPool() : null;
+    }
+
+
+    private static void configure(ConnectionAdapter adapter) {
+        Configuration cfg = Configurator.getConfiguration();
+        if (cfg instanceof DefaultConfiguration) {
+            adapter.setFetchSize(((DefaultConfiguration) cfg).getDefaultFetchSize());
+            adapter.setStatementCacheSize(((DefaultConfiguration) cfg).getStatementCacheSize());
+            adapter.setBatchSize(((DefaultConfiguration) cfg).getDefaultBatchSize());
+        }
     }
 
 
@@ -81,6 +152,12 @@ public class Connector {
 
 
     private static synchronized void setDefaultConnection(ConnectionAdapter connection) {
+        // the default connection outlives template processing, so it must be neither released nor returned to the pool
+        ResourceRegistry.unregister(connection);
+        ConnectionPool pool = connection.pool;
+        if (pool != null) {
+            pool.detach(connection);
+        }
         defaultConnection = connection;
     }
 
@@ -113,6 +190,18 @@ public class Connector {
      * <p>Method overloading: {@code ConnectionAdapter new_connection()}. Returns the driver's default connection with
      * the {@code "jdbc:default:connection"} url.
      *
+     * <p>Each overloading with at least one argument accepts an optional trailing {@code fetch_size} argument - the
+     * number of rows fetched in one round trip by queries executed via the connection (row prefetch for Oracle). If it
+     * is omitted, the configuration's default is used (see {@link DefaultConfiguration#setDefaultFetchSize(int)}).
+     *
+     * <p>If the configuration's connection pool is enabled (see
+     * {@link DefaultConfiguration#setConnectionPoolSize(int)}), connections with an url are taken from the pool, see
+     * {@link ConnectionPool}. Closing such a connection returns it to the pool.
+     *
+     * <p>Connections that are not closed explicitly are closed or returned to the pool when the template processing
+     * finishes, see {@link ResourceRegistry}. A connection that has to outlive the processing should be set as the
+     * default one.
+     *
      * <p>Usage examples in FTL:
      * <pre>
      * {@code
@@ -120,15 +209,43 @@ public class Connector {
      * <#assign ext_conn1 = new_connection("jdbc:oracle:thin:scott/tiger@//localhost:1521/orcl")/>
      * <#assign ext_conn2 = new_connection("jdbc:oracle:thin:@//localhost:1521/orcl", "scott", "tiger")/>
      * <#assign ext_conn3 = new_connection("jdbc:oracle:thin:@//localhost:1521/orcl", {"user" : "scott", "password" : "tiger"}/>
+     * <#assign ext_conn4 = new_connection("jdbc:oracle:thin:@//localhost:1521/orcl", "scott", "tiger", 500)/>
      * }
      * </pre>
      */
     public static class NewConnectionMethod implements TemplateMethodModelEx {
 
         public Object exec(List args) throws TemplateModelException {
+            ConnectionAdapter conn = open(args);
+            ResourceRegistry.register(conn);
+            return conn;
+        }
+
+        private ConnectionAdapter open(List args) throws TemplateModelException {
+
+            if (args.size() > 4) {
+                throw new TemplateModelException("Wrong number of arguments: expected 0 to 4, got " + args.size());
+            }
+
+            if (args.size() > 1 && args.get(args.size() - 1) instanceof TemplateNumberModel) {
+                int fetchSize = ((TemplateNumberModel) args.get(args.size() - 1)).getAsNumber().intValue();
+                if (fetchSize < 0) {
+                    throw new TemplateModelException("Illegal value of argument #" + args.size() + ": "
+                            + "expected non-negative fetch size, got " + fetchSize);
+                }
+                ConnectionAdapter conn = connect(args.subList(0, args.size() - 1));
+                conn.setFetchSize(fetchSize);
+                return conn;
+            }
+
+            return connect(args);
+        }
+
+        private ConnectionAdapter connect(List args) throws TemplateModelException {
 
             if (args.size() > 3) {
-                throw new TemplateModelException("Wrong number of arguments: expected 0 to 3, got " + args.size());
+                throw new TemplateModelException("Illegal type of argument #4: "
+                        + "expected number, got " + args.get(3).getClass().getName());
             }
 
             if (args.size() == 0) {
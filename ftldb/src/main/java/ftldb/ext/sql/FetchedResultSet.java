@@ -38,6 +38,8 @@ public class FetchedResultSet {
     public final Map columnIndices;
     public final Object[][] data;
 
+    private final ColumnLabelIndex labelIndex;
+
 
     /**
      * Fetches the specified result set and saves it as an {@link Object}[][]. Also saves its metadata.
@@ -59,24 +61,30 @@ public class FetchedResultSet {
                 columnIndices.put(columnLabels[i], new Integer(i));
             }
         }
+        labelIndex = new ColumnLabelIndex(columnLabels);
 
         List rows = new ArrayList(64);
 
-        while (rs.next()) {
-            Object[] row = new Object[columnCount];
-            for (int i = 0; i < columnCount; i++) {
-                Object o = rs.getObject(i + 1);
-                if (o instanceof ResultSet) {
-                    o = new FetchedResultSet((ResultSet) o);
+        try {
+            while (rs.next()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    Object o = rs.getObject(i + 1);
+                    if (o instanceof ResultSet) {
+                        o = new FetchedResultSet((ResultSet) o);
+                    } else {
+                        ResourceRegistry.registerValue(o);
+                    }
+                    row[i] = o;
                 }
-                row[i] = o;
+                rows.add(row);
             }
-            rows.add(row);
+        } finally {
+            // nested cursors are closed even if fetching fails
+            rs.close();
         }
 
         data = (Object[][]) rows.toArray(new Object[rows.size()][columnCount]);
-
-        rs.close();
     }
 
 
@@ -101,6 +109,18 @@ public class FetchedResultSet {
     }
 
 
+    /**
+     * Returns the specified column's index starting from 0 without creating objects. This method is used by the FTL
+     * models to access cells by column labels.
+     *
+     * @param label the column's label
+     * @return the column's index or {@code -1} if no column with such label exists
+     */
+    public int indexOf(String label) {
+        return labelIndex.indexOf(label);
+    }
+
+
     /**
      * Returns the specified column's position starting from 1 as {@link ResultSet#findColumn(String)} does. This
      * index is used in {@link ResultSetMetaData} methods.
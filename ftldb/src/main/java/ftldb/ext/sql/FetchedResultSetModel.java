@@ -34,6 +34,7 @@ public class FetchedResultSetModel extends BeanModel implements TemplateSequence
 
     private final ObjectWrapper wrapper;
     private final FetchedResultSet frs;
+    private FetchedResultSetRowModel lastRow;
 
 
     public FetchedResultSetModel(FetchedResultSet frs, BeansWrapper wrapper) {
@@ -44,12 +45,21 @@ public class FetchedResultSetModel extends BeanModel implements TemplateSequence
 
 
     /**
-     * Retrieves the i-th row in this result set.
+     * Retrieves the i-th row in this result set. The last retrieved row model is reused along with its wrapped cells
+     * if the same row is requested again, e.g. in {@code ${res[0].A} ${res[0].B}}. Other row models are not retained,
+     * so iterating a large result set does not keep all its wrapped cells in memory.
      *
-     * @return the row at the specified index (rownum - 1)
+     * @return the row at the specified index (rownum - 1) or {@code null} if the index is out of range
      */
     public TemplateModel get(int index) throws TemplateModelException {
-        return new FetchedResultSetRowModel(frs, index, wrapper);
+        if (index < 0 || index >= frs.data.length) return null;
+
+        FetchedResultSetRowModel row = lastRow;
+        if (row == null || row.rowIndex != index) {
+            row = new FetchedResultSetRowModel(frs, index, wrapper);
+            lastRow = row;
+        }
+        return row;
     }
 
 
@@ -24,6 +24,8 @@ import java.util.Arrays;
 /**
  * This class wraps {@link java.sql.ResultSet}'s row and adapts it for using in FTL both as a sequence and a hash of
  * rows.
+ *
+ * <p>Cells are wrapped on first access and then reused, so a column referenced several times costs a single model.
  */
 public class FetchedResultSetRowModel extends WrappingTemplateModel implements TemplateSequenceModel,
         TemplateHashModelEx {
@@ -32,31 +34,50 @@ public class FetchedResultSetRowModel extends WrappingTemplateModel implements T
     public final FetchedResultSet resultSet;
     public final int rowIndex;
 
+    private final Object[] row;
+    private TemplateModel[] cells;
+
 
     public FetchedResultSetRowModel(FetchedResultSet frs, int index, ObjectWrapper wrapper) {
         super(wrapper);
         this.resultSet = frs;
         this.rowIndex = index;
+        this.row = frs.data[index];
     }
 
 
     /**
      * Retrieves the i-th column in this row.
      *
-     * @return the value of column at the specified index
+     * @return the value of column at the specified index or {@code null} if the index is out of range
      */
     public TemplateModel get(int index) throws TemplateModelException {
-        return wrap(resultSet.data[rowIndex][index]);
+        if (index < 0 || index >= row.length) return null;
+        return getCell(index);
     }
 
 
     /**
      * Retrieves the value of the specified column in this row.
      *
-     * @return the value of the specified column
+     * @return the value of the specified column or {@code null} if there is no such column
      */
     public TemplateModel get(String key) throws TemplateModelException {
-        return wrap(resultSet.data[rowIndex][((Integer) resultSet.columnIndices.get(key)).intValue()]);
+        int index = resultSet.indexOf(key);
+        if (index == -1) return null;
+        return getCell(index);
+    }
+
+
+    private TemplateModel getCell(int index) throws TemplateModelException {
+        if (cells == null) cells = new TemplateModel[row.length];
+
+        TemplateModel cell = cells[index];
+        if (cell == null) {
+            cell = wrap(row[index]);
+            cells[index] = cell;
+        }
+        return cell;
     }
 
 
@@ -66,7 +87,7 @@ public class FetchedResultSetRowModel extends WrappingTemplateModel implements T
      * @return the number of columns in this row
      */
     public int size() {
-        return resultSet.data[rowIndex].length;
+        return row.length;
     }
 
 
@@ -86,7 +107,7 @@ public class FetchedResultSetRowModel extends WrappingTemplateModel implements T
      * @return the list of values ordered by position
      */
     public TemplateCollectionModel values() throws TemplateModelException {
-        return new SimpleCollection(java.util.Arrays.asList(resultSet.data[rowIndex]), getObjectWrapper());
+        return new SimpleCollection(Arrays.asList(row), getObjectWrapper());
     }
 
 
@@ -96,7 +117,7 @@ public class FetchedResultSetRowModel extends WrappingTemplateModel implements T
      * @return always {@code false}
      */
     public boolean isEmpty() throws TemplateModelException {
-        return resultSet.data[rowIndex].length == 0;
+        return row.length == 0;
     }
 
 
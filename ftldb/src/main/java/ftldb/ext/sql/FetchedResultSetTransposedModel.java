@@ -49,10 +49,12 @@ public class FetchedResultSetTransposedModel extends WrappingTemplateModel imple
     /**
      * Retrieves the specified column in this result set.
      *
-     * @return the specified column as an array
+     * @return the specified column as an array or {@code null} if there is no such column
      */
     public TemplateModel get(String key) throws TemplateModelException {
-        return wrap(frst.transposedData[((Integer) frst.resultSet.columnIndices.get(key)).intValue()]);
+        int index = frst.resultSet.indexOf(key);
+        if (index == -1) return null;
+        return wrap(frst.transposedData[index]);
     }
 
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.TemplateModelException;
+
+import java.io.InputStream;
+
+
+/**
+ * This class wraps {@link InputStream} and adapts it for using in FTL as a directive that writes the stream to the
+ * output as base64 or hex text, see {@link BinaryStreamModel}. A stream can be read only once, so the directive can
+ * be called only once too. Every wrapping creates a new model, so a stream taken from a map or a bean should be
+ * assigned to a variable first.
+ */
+public class InputStreamModel extends BinaryStreamModel {
+
+
+    private InputStream stream;
+
+
+    public InputStreamModel(InputStream stream, BeansWrapper wrapper) {
+        super(stream, wrapper);
+        this.stream = stream;
+    }
+
+
+    protected InputStream openStream() throws TemplateModelException {
+        if (stream == null) {
+            throw new TemplateModelException("Binary stream has already been read");
+        }
+        InputStream in = stream;
+        stream = null;
+        return in;
+    }
+
+
+}
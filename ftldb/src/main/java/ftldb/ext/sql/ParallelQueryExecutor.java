@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import ftldb.ext.WorkerPool;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.*;
+
+
+/**
+ * This class executes independent queries at the same time, each one on its own connection to the same database, so
+ * the total time is close to the time of the slowest query rather than the sum of all. Queries are executed by the
+ * threads of a {@link WorkerPool}, the results are available as {@link FetchedResultSet}s as soon as they are fetched.
+ *
+ * <p>The connections are opened with the url and properties of the originating connection, or taken from the
+ * configuration's connection pool if it is enabled, which saves the login time. A connection is closed or returned to
+ * the pool right after the query, unless the result contains LOBs, which can be read only while the connection is
+ * open. Such connections are released when the template processing finishes, see {@link ResourceRegistry}.
+ *
+ * <p>Since the queries run in separate sessions, they do not see the uncommitted changes of the originating
+ * connection, which is in the manual commit mode.
+ *
+ * <p>If the originating connection can't be reopened, e.g. it is the server-side default connection, or no worker
+ * pool is given, the queries are executed one after another on the originating connection.
+ */
+public class ParallelQueryExecutor {
+
+
+    private final ConnectionAdapter origin;
+    private final WorkerPool workers;
+
+
+    /**
+     * Creates a new instance.
+     *
+     * @param origin the connection whose url and properties are used for opening new connections
+     * @param workers the threads that execute queries, {@code null} means sequential execution
+     */
+    public ParallelQueryExecutor(ConnectionAdapter origin, WorkerPool workers) {
+        this.origin = origin;
+        this.workers = workers;
+    }
+
+
+    /**
+     * Submits the specified queries for execution. Each query is either an SQL string or a list of an SQL string and
+     * a list of bind variable values.
+     *
+     * @param queries the queries mapped to their names
+     * @return the pending results
+     * @throws SQLException if a query is malformed or, in the sequential mode, if a database access error occurs
+     */
+    public ParallelQueryResults execute(Map queries) throws SQLException {
+        Map entries = new LinkedHashMap(queries.size() * 2);
+        boolean parallel = workers != null && origin.url != null;
+        ResourceRegistry registry = ResourceRegistry.getCurrent();
+
+        for (Iterator it = queries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry e = (Map.Entry) it.next();
+            String name = String.valueOf(e.getKey());
+            Object query = e.getValue();
+
+            String sql;
+            List binds = null;
+            if (query instanceof String) {
+                sql = (String) query;
+            } else if (query instanceof List && (((List) query).size() == 1 || ((List) query).size() == 2)
+                    && ((List) query).get(0) instanceof String) {
+                sql = (String) ((List) query).get(0);
+                if (((List) query).size() == 2) {
+                    Object o = ((List) query).get(1);
+                    if (o != null && !(o instanceof List)) {
+                        throw new SQLException("Wrong binds of query \"" + name + "\": expected List, got "
+                                + o.getClass().getName());
+                    }
+                    binds = (List) o;
+                }
+            } else {
+                throw new SQLException("Wrong query \"" + name + "\": expected SQL string or [sql, binds] list, "
+                        + "got " + (query == null ? "null" : query.getClass().getName()));
+            }
+
+            if (parallel) {
+                entries.put(name, workers.submit(new QueryJob(sql, binds, registry)));
+            } else {
+                entries.put(name, origin.query(sql, binds));
+            }
+        }
+
+        ParallelQueryResults results = new ParallelQueryResults(entries);
+        if (parallel) {
+            // pending queries must finish before their connections are released
+            ResourceRegistry.register(results);
+        }
+        return results;
+    }
+
+
+    private final class QueryJob implements WorkerPool.Job {
+
+        private final String sql;
+        private final List binds;
+        private final ResourceRegistry registry;
+
+        private QueryJob(String sql, List binds, ResourceRegistry registry) {
+            this.sql = sql;
+            this.binds = binds;
+            this.registry = registry;
+        }
+
+        public Object run() throws Exception {
+            // fetched LOBs and held connections are tracked by the processing that submitted the query
+            ResourceRegistry previous = ResourceRegistry.setCurrent(registry);
+            try {
+                ConnectionAdapter conn = Connector.reopen(origin);
+                boolean keep = false;
+                try {
+                    FetchedResultSet frs = conn.query(sql, binds);
+                    keep = containsLobs(frs);
+                    return frs;
+                } finally {
+                    if (keep) {
+                        ResourceRegistry.register(conn);
+                    } else {
+                        conn.close();
+                    }
+                }
+            } finally {
+                ResourceRegistry.setCurrent(previous);
+            }
+        }
+
+    }
+
+
+    private static boolean containsLobs(FetchedResultSet frs) {
+        for (int ri = 0; ri < frs.data.length; ri++) {
+            Object[] row = frs.data[ri];
+            for (int ci = 0; ci < row.length; ci++) {
+                Object o = row[ci];
+                if (o instanceof Clob || o instanceof Blob) return true;
+                // nested cursors may contain LOBs, too
+                if (o instanceof FetchedResultSet && containsLobs((FetchedResultSet) o)) return true;
+            }
+        }
+        return false;
+    }
+
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import ftldb.ext.WorkerPool;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class contains the pending results of queries submitted by {@link ParallelQueryExecutor}, keyed by the query
+ * names. Getting a result waits for its query to finish.
+ */
+public class ParallelQueryResults {
+
+
+    // Query names mapped to WorkerPool.Tasks or, if executed sequentially, to FetchedResultSets.
+    private final Map entries;
+
+
+    ParallelQueryResults(Map entries) {
+        this.entries = entries;
+    }
+
+
+    /**
+     * Returns the query names in order of submission.
+     *
+     * @return the list of names
+     */
+    public List getNames() {
+        return new ArrayList(entries.keySet());
+    }
+
+
+    /**
+     * Determines whether the specified query has been submitted.
+     *
+     * @param name the query's name
+     * @return {@code true} if there is such a query
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+
+    /**
+     * Determines whether the specified query is finished, successfully or not.
+     *
+     * @param name the query's name
+     * @return {@code true} if the query is finished
+     */
+    public boolean isDone(String name) {
+        Object o = entries.get(name);
+        return !(o instanceof WorkerPool.Task) || ((WorkerPool.Task) o).isDone();
+    }
+
+
+    /**
+     * Waits for the specified query to finish and returns its result.
+     *
+     * @param name the query's name
+     * @return the query's result or {@code null} if there is no such query
+     * @throws SQLException if the query fails or the current thread is interrupted
+     */
+    public FetchedResultSet get(String name) throws SQLException {
+        Object o = entries.get(name);
+        if (!(o instanceof WorkerPool.Task)) return (FetchedResultSet) o;
+
+        try {
+            return (FetchedResultSet) ((WorkerPool.Task) o).get();
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw (SQLException) new SQLException("Query \"" + name + "\" failed: " + e).initCause(e);
+        }
+    }
+
+
+    /**
+     * Waits for all the queries to finish. Their results and errors are kept. This method is called when the template
+     * processing finishes, so no query is running when its connection is released.
+     */
+    public void close() {
+        for (Iterator it = entries.values().iterator(); it.hasNext(); ) {
+            Object o = it.next();
+            if (o instanceof WorkerPool.Task) {
+                try {
+                    ((WorkerPool.Task) o).await(0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the query states that are helpful for debugging.
+     *
+     * @return the query names and states
+     */
+    public String toString() {
+        StringBuffer sb = new StringBuffer("ParallelQueryResults(");
+        for (Iterator it = entries.keySet().iterator(); it.hasNext(); ) {
+            String name = (String) it.next();
+            sb.append(name).append('=').append(isDone(name) ? "done" : "pending");
+            if (it.hasNext()) sb.append("; ");
+        }
+        return sb.append(')').toString();
+    }
+
+
+}
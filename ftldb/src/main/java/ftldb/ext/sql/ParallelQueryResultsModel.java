@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.template.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class wraps {@link ParallelQueryResults} and adapts it for using in FTL as a hash of result sets keyed by the
+ * query names. Getting a result set waits for its query to finish, so queries run in the background until their
+ * results are used.
+ */
+public class ParallelQueryResultsModel extends WrappingTemplateModel implements TemplateHashModelEx {
+
+
+    public final ParallelQueryResults results;
+
+
+    public ParallelQueryResultsModel(ParallelQueryResults results, ObjectWrapper wrapper) {
+        super(wrapper);
+        this.results = results;
+    }
+
+
+    /**
+     * Waits for the specified query and retrieves its result.
+     *
+     * @return the query's result or {@code null} if there is no such query
+     */
+    public TemplateModel get(String key) throws TemplateModelException {
+        if (!results.contains(key)) return null;
+        try {
+            return wrap(results.get(key));
+        } catch (SQLException e) {
+            throw new TemplateModelException(e);
+        }
+    }
+
+
+    /**
+     * Returns the number of queries.
+     *
+     * @return the query count
+     */
+    public int size() {
+        return results.getNames().size();
+    }
+
+
+    /**
+     * Returns a list of query names.
+     *
+     * @return a list of query names in order of submission
+     */
+    public TemplateCollectionModel keys() throws TemplateModelException {
+        return new SimpleCollection(results.getNames(), getObjectWrapper());
+    }
+
+
+    /**
+     * Waits for all the queries and returns a list of their results.
+     *
+     * @return the list of results in order of submission
+     */
+    public TemplateCollectionModel values() throws TemplateModelException {
+        List names = results.getNames();
+        List values = new ArrayList(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            values.add(get((String) names.get(i)));
+        }
+        return new SimpleCollection(values, getObjectWrapper());
+    }
+
+
+    /**
+     * Determines whether no queries have been submitted.
+     *
+     * @return {@code true} if there are no queries
+     */
+    public boolean isEmpty() throws TemplateModelException {
+        return size() == 0;
+    }
+
+
+}
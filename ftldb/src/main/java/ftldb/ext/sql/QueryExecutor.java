@@ -23,22 +23,60 @@ import java.util.Date;
 
 /**
  * This class is a database query executor. The result of each query is fully fetched and placed in memory, so be
- * careful while working with very large queries. Columns are got with {@link ResultSet#getObject(int)} and saved as is,
- * preserving their types.
+ * careful while working with very large queries, or use {@link #executeStreamingQuery(String, List, int)} for them.
+ * Columns are got with {@link ResultSet#getObject(int)} and saved as is, preserving their types.
  */
 public class QueryExecutor {
 
 
     private final Connection connection;
+    private final StatementCache statementCache;
+    private int fetchSize;
 
 
     /**
-     * Creates a new instance using the specified connection.
+     * Creates a new instance using the specified connection. Statements are not cached and are closed after use.
      *
      * @param connection the connection to a database
      */
     public QueryExecutor(Connection connection) {
+        this(connection, new StatementCache(connection, 0));
+    }
+
+
+    /**
+     * Creates a new instance using the specified connection and its statement cache.
+     *
+     * @param connection the connection to a database
+     * @param statementCache the cache of the connection's statements
+     */
+    public QueryExecutor(Connection connection, StatementCache statementCache) {
         this.connection = connection;
+        this.statementCache = statementCache;
+    }
+
+
+    /**
+     * Returns the default number of rows fetched in one round trip.
+     *
+     * @return the default fetch size, {@code 0} means the driver's default
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+
+    /**
+     * Sets the default number of rows fetched in one round trip for all queries executed by this instance. For Oracle
+     * this is the row prefetch size, which is 10 by default in the driver.
+     *
+     * @param fetchSize the default fetch size, {@code 0} means the driver's default
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size must be non-negative: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
     }
 
 
@@ -63,12 +101,102 @@ public class QueryExecutor {
      * @throws SQLException if a database access error occurs
      */
     public FetchedResultSet executeQuery(String query, List binds) throws SQLException {
+        return executeQuery(query, binds, 0);
+    }
+
+
+    /**
+     * Executes the specified query containing bind variables, fetching the specified number of rows in one round trip.
+     *
+     * @param query the SQL query statement
+     * @param binds the list of bind variable values
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the default one
+     * @return the result set wrapped into {@link FetchedResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public FetchedResultSet executeQuery(String query, List binds, int fetchSize) throws SQLException {
+        checkQuery(query);
+        PreparedStatement ps = statementCache.prepareStatement(query);
+
+        // a cached statement may be shared, so binding and fetching must not interleave
+        synchronized (ps) {
+            try {
+                bind(ps, binds, fetchSize);
+                return new FetchedResultSet(ps.executeQuery());
+            } finally {
+                statementCache.release(ps);
+            }
+        }
+    }
+
+
+    /**
+     * Executes the specified query containing bind variables and fetches its result by columns into a
+     * {@link ColumnarResultSet}, which takes less memory than {@link FetchedResultSet} for large numeric or
+     * low-cardinality string results.
+     *
+     * @param query the SQL query statement
+     * @param binds the list of bind variable values
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the default one
+     * @return the result set wrapped into {@link ColumnarResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public ColumnarResultSet executeColumnarQuery(String query, List binds, int fetchSize) throws SQLException {
+        checkQuery(query);
+        PreparedStatement ps = statementCache.prepareStatement(query);
+
+        // a cached statement may be shared, so binding and fetching must not interleave
+        synchronized (ps) {
+            try {
+                bind(ps, binds, fetchSize);
+                return new ColumnarResultSet(ps.executeQuery());
+            } finally {
+                statementCache.release(ps);
+            }
+        }
+    }
+
+
+    /**
+     * Executes the specified query containing bind variables and returns its cursor as a lazy forward-only
+     * {@link StreamingResultSet}. Rows are fetched while iterating, so the memory consumption does not depend on the
+     * query size. The statement is not cached, it is closed along with the cursor.
+     *
+     * @param query the SQL query statement
+     * @param binds the list of bind variable values
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the default one
+     * @return the result set wrapped into {@link StreamingResultSet}
+     * @throws SQLException if a database access error occurs
+     */
+    public StreamingResultSet executeStreamingQuery(String query, List binds, int fetchSize) throws SQLException {
+        checkQuery(query);
+        PreparedStatement ps = connection.prepareStatement(query);
+
+        try {
+            bind(ps, binds, fetchSize);
+            StreamingResultSet srs = new StreamingResultSet(ps.executeQuery(), ps, 0);
+            ResourceRegistry.register(srs);
+            return srs;
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+    }
+
+
+    private static void checkQuery(String query) {
         if (query == null || "".equals(query.trim())) {
             throw new RuntimeException("Unable to execute empty query");
         }
+    }
+
+
+    private void bind(PreparedStatement ps, List binds, int fetchSize) throws SQLException {
         if (binds == null) binds = Collections.EMPTY_LIST;
 
-        PreparedStatement ps = connection.prepareStatement(query);
+        // 0 resets a reused statement to the driver's default
+        ps.setFetchSize(fetchSize > 0 ? fetchSize : this.fetchSize);
+        ps.clearParameters();
 
         if (binds != null && !binds.isEmpty()) {
             int index = 1;
@@ -79,8 +207,6 @@ public class QueryExecutor {
                 ps.setObject(index++, o);
             }
         }
-
-        return new FetchedResultSet(ps.executeQuery());
     }
 
 
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.core.Environment;
+import freemarker.ext.beans.BeanModel;
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Map;
+
+
+/**
+ * This class wraps {@link Reader} and adapts it for using in FTL as a string or as a directive that writes the
+ * characters to the output in chunks:
+ * <pre>
+ * {@code
+ * ${reader}
+ * <@reader/>
+ * }
+ * </pre>
+ * A reader can be read only once. The string is kept after the first read and can be used many times, but the
+ * directive used first consumes the reader without keeping anything. Every wrapping creates a new model, so a reader
+ * taken from a map or a bean should be assigned to a variable before it is used several times.
+ */
+public class ReaderModel extends BeanModel implements TemplateScalarModel, TemplateDirectiveModel {
+
+
+    /**
+     * The number of characters read in one call while writing the stream to the output.
+     */
+    public static final int CHUNK_SIZE = 32768;
+
+
+    private final Reader reader;
+    private boolean opened;
+    private String string;
+
+
+    public ReaderModel(Reader reader, BeansWrapper wrapper) {
+        super(reader, wrapper);
+        this.reader = reader;
+    }
+
+
+    protected ReaderModel(Object object, BeansWrapper wrapper) {
+        super(object, wrapper);
+        this.reader = null;
+    }
+
+
+    /**
+     * Opens the character stream of the wrapped object. Called at most once.
+     *
+     * @return the character stream
+     * @throws TemplateModelException if the stream can't be opened
+     */
+    protected Reader openReader() throws TemplateModelException {
+        return reader;
+    }
+
+
+    private Reader takeReader() throws TemplateModelException {
+        if (opened) {
+            throw new TemplateModelException("Character stream has already been written to the output");
+        }
+        opened = true;
+        return openReader();
+    }
+
+
+    /**
+     * Returns the contents of the stream. The stream is read on the first call.
+     *
+     * @return the stream as a string
+     */
+    public String getAsString() throws TemplateModelException {
+        if (string == null) {
+            Reader r = takeReader();
+            StringBuffer sb = new StringBuffer();
+            try {
+                try {
+                    char[] buf = new char[CHUNK_SIZE];
+                    for (int n = r.read(buf); n != -1; n = r.read(buf)) {
+                        sb.append(buf, 0, n);
+                    }
+                } finally {
+                    r.close();
+                }
+            } catch (IOException e) {
+                throw new TemplateModelException(e);
+            }
+            string = sb.toString();
+        }
+        return string;
+    }
+
+
+    /**
+     * Writes the stream to the output in chunks of {@link #CHUNK_SIZE} characters. If the stream has already been read
+     * into a string, the string is written instead.
+     */
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+            throws TemplateException, IOException {
+        if (body != null) {
+            throw new TemplateModelException("Wrong usage: body is not allowed");
+        }
+        if (loopVars.length != 0) {
+            throw new TemplateModelException("Wrong usage: loop variables are not allowed");
+        }
+        if (params.size() != 0) {
+            throw new TemplateModelException("Wrong number of named parameters: expected 0, got " + params.size());
+        }
+
+        Writer out = env.getOut();
+        if (string != null) {
+            out.write(string);
+            return;
+        }
+
+        Reader r = takeReader();
+        try {
+            char[] buf = new char[CHUNK_SIZE];
+            for (int n = r.read(buf); n != -1; n = r.read(buf)) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+
+    /**
+     * Returns the empty list. Iteration through the {@code super.values()} list causes an exception.
+     *
+     * @return the empty list
+     */
+    public TemplateCollectionModel values() {
+        return new SimpleCollection(new ArrayList(0), wrapper);
+    }
+
+
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.lang.reflect.Method;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * This class tracks database resources acquired in FTL during a template processing and releases them when the
+ * processing finishes, even if it fails. {@link ftldb.TemplateProcessor} opens a registry for each processing, so
+ * cursors and temporary LOBs do not pile up in a long-living session, e.g. in the Oracle JVM.
+ *
+ * <p>Tracked resources are released in reverse order of registration:
+ * <ul>
+ *     <li>connections opened by {@code new_connection} and not closed - closed along with their cached statements,
+ *     or returned to the pool if they are pooled;
+ *     <li>streaming result sets that were not iterated to the end - closed along with their statements;
+ *     <li>LOBs fetched from queries and calls - freed, which releases temporary LOBs in the database. LOBs of a
+ *     streaming result set are tracked by the result set row by row, and freed as soon as the iteration moves past
+ *     their row (see {@link StreamingResultSet#releaseRow(Object[])}).
+ * </ul>
+ * A resource is not tracked any more when it is closed explicitly. The default connection is never tracked, so its
+ * statements are kept between processings. LOBs and connections must not be used after the processing, e.g. via
+ * {@code shared_hash}.
+ *
+ * <p>Registries are bound to the current thread and may be nested. A worker thread acting on behalf of a processing
+ * can be bound to its registry by {@link #setCurrent(ResourceRegistry)}. Each registry counts what it has released,
+ * and the last closed registry of a thread is available via {@link #getLastClosed()}.
+ */
+public class ResourceRegistry {
+
+
+    private static final ThreadLocal current = new ThreadLocal();
+    private static final ThreadLocal lastClosed = new ThreadLocal();
+
+    // LOB classes mapped to their methods that free them, or to the class itself if there are no such methods
+    private static final Map freeMethods = new HashMap();
+
+
+    private final ResourceRegistry parent;
+    private final boolean bound;
+    private final ArrayList resources = new ArrayList();
+    private volatile boolean closed;
+
+    private int connectionCount;
+    private int statementCount;
+    private int resultSetCount;
+    private int lobCount;
+    private int errorCount;
+
+
+    private ResourceRegistry(ResourceRegistry parent, boolean bound) {
+        this.parent = parent;
+        this.bound = bound;
+    }
+
+
+    /**
+     * Opens a new registry for the current thread. Resources registered until it is closed are tracked by it.
+     *
+     * @return the new registry
+     */
+    public static ResourceRegistry open() {
+        ResourceRegistry registry = new ResourceRegistry((ResourceRegistry) current.get(), true);
+        current.set(registry);
+        return registry;
+    }
+
+
+    /**
+     * Creates a registry nested in the current one, but not bound to the thread, e.g. for the resources of a single
+     * row. Resources are registered in it only while it is explicitly made current. When it is closed, its counters
+     * are added to the enclosing registry.
+     *
+     * @return the new registry
+     */
+    static ResourceRegistry openDetached() {
+        return new ResourceRegistry((ResourceRegistry) current.get(), false);
+    }
+
+
+    /**
+     * Returns the registry of the current thread.
+     *
+     * @return the current registry or {@code null} if none is open
+     */
+    public static ResourceRegistry getCurrent() {
+        return (ResourceRegistry) current.get();
+    }
+
+
+    /**
+     * Binds the specified registry to the current thread, e.g. to a worker thread executing a query for a template.
+     *
+     * @param registry the registry to bind, {@code null} unbinds the current one
+     * @return the previously bound registry, which should be bound back when the work is done
+     */
+    public static ResourceRegistry setCurrent(ResourceRegistry registry) {
+        ResourceRegistry previous = (ResourceRegistry) current.get();
+        current.set(registry);
+        return previous;
+    }
+
+
+    /**
+     * Returns the last closed registry of the current thread, whose counters show what has been released.
+     *
+     * @return the last closed registry or {@code null} if none has been closed
+     */
+    public static ResourceRegistry getLastClosed() {
+        return (ResourceRegistry) lastClosed.get();
+    }
+
+
+    /**
+     * Registers the specified resource in the current registry. Does nothing if no registry is open.
+     *
+     * @param resource a {@link ConnectionAdapter}, {@link StreamingResultSet}, {@link ParallelQueryResults},
+     * {@link Statement}, {@link ResultSet}, {@link Clob} or {@link Blob}
+     */
+    public static void register(Object resource) {
+        ResourceRegistry registry = (ResourceRegistry) current.get();
+        if (registry != null) {
+            synchronized (registry) {
+                registry.resources.add(resource);
+            }
+        }
+    }
+
+
+    /**
+     * Registers the specified value in the current registry if it is a LOB. This method is called for each fetched
+     * value.
+     *
+     * @param value a fetched value
+     */
+    public static void registerValue(Object value) {
+        if (value instanceof Clob || value instanceof Blob) {
+            register(value);
+        }
+    }
+
+
+    /**
+     * Stops tracking the specified resource in the current registry. This method is called when a resource is closed
+     * explicitly or has to outlive the processing.
+     *
+     * @param resource the registered resource
+     */
+    public static void unregister(Object resource) {
+        ResourceRegistry registry = (ResourceRegistry) current.get();
+        if (registry == null) return;
+
+        // resources are usually closed soon after they are acquired, so search from the end
+        synchronized (registry) {
+            ArrayList list = registry.resources;
+            for (int i = list.size() - 1; i >= 0; i--) {
+                if (list.get(i) == resource) {
+                    list.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Releases all the tracked resources in reverse order of registration and makes the enclosing registry current
+     * again. Errors are ignored and counted.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        try {
+            // pending parallel queries may register their connections and LOBs while they are being waited for
+            for (Object[] list = drain(); list.length > 0; list = drain()) {
+                for (int i = list.length - 1; i >= 0; i--) {
+                    release(list[i]);
+                }
+            }
+        } finally {
+            if (bound) {
+                if (current.get() == this) {
+                    current.set(parent);
+                }
+                lastClosed.set(this);
+            } else if (parent != null) {
+                parent.addCounts(this);
+            }
+        }
+    }
+
+
+    /**
+     * Determines whether no resources are tracked.
+     *
+     * @return {@code true} if nothing is registered
+     */
+    synchronized boolean isEmpty() {
+        return resources.isEmpty();
+    }
+
+
+    /**
+     * Determines whether this registry has been closed, i.e. the processing it belongs to has ended.
+     *
+     * @return {@code true} if the registry is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+
+    /**
+     * Determines whether this registry is open and is the current registry of the current thread or encloses it, i.e.
+     * whether the current thread works for the processing this registry belongs to.
+     *
+     * @return {@code true} if the registry is in effect in the current thread
+     */
+    public boolean isInEffect() {
+        if (closed) return false;
+        for (ResourceRegistry r = (ResourceRegistry) current.get(); r != null; r = r.parent) {
+            if (r == this) return true;
+        }
+        return false;
+    }
+
+
+    private synchronized void addCounts(ResourceRegistry r) {
+        connectionCount += r.connectionCount;
+        statementCount += r.statementCount;
+        resultSetCount += r.resultSetCount;
+        lobCount += r.lobCount;
+        errorCount += r.errorCount;
+    }
+
+
+    private synchronized Object[] drain() {
+        Object[] list = resources.toArray();
+        resources.clear();
+        return list;
+    }
+
+
+    private void release(Object resource) {
+        try {
+            if (resource instanceof ParallelQueryResults) {
+                ((ParallelQueryResults) resource).close();
+            } else if (resource instanceof ConnectionAdapter) {
+                ConnectionAdapter conn = (ConnectionAdapter) resource;
+                if (!conn.isPooled()) {
+                    statementCount += conn.getStatementCache().getSize();
+                }
+                conn.close();
+                connectionCount++;
+            } else if (resource instanceof StreamingResultSet) {
+                StreamingResultSet srs = (StreamingResultSet) resource;
+                // an exhausted result set may still hold the LOBs of its last row
+                boolean open = !srs.isClosed();
+                srs.close();
+                if (open) {
+                    resultSetCount++;
+                    statementCount++;
+                }
+            } else if (resource instanceof Statement) {
+                ((Statement) resource).close();
+                statementCount++;
+            } else if (resource instanceof ResultSet) {
+                ((ResultSet) resource).close();
+                resultSetCount++;
+            } else if (freeLob(resource)) {
+                lobCount++;
+            }
+        } catch (Exception e) {
+            errorCount++;
+        }
+    }
+
+
+    /**
+     * Frees the specified LOB, which releases it in the database if it is temporary. Errors are ignored.
+     *
+     * @param lob a {@link Clob} or {@link Blob}
+     * @return {@code true} if the LOB has been freed
+     */
+    public static boolean free(Object lob) {
+        try {
+            return freeLob(lob);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Frees the specified LOB with {@code free()} (JDBC 4) or, in older drivers, with Oracle's
+     * {@code freeTemporary()} if the LOB is temporary. They are invoked via reflection, since they are not available
+     * in Java 1.4.
+     */
+    private static boolean freeLob(Object lob) throws Exception {
+        Method[] methods = getFreeMethods(lob.getClass());
+        if (methods == null) return false;
+
+        if (methods.length == 1) {
+            methods[0].invoke(lob, new Object[0]);
+            return true;
+        }
+        if (Boolean.TRUE.equals(methods[0].invoke(lob, new Object[0]))) {
+            methods[1].invoke(lob, new Object[0]);
+            return true;
+        }
+        return false;
+    }
+
+
+    private static Method[] getFreeMethods(Class c) {
+        synchronized (freeMethods) {
+            Object o = freeMethods.get(c);
+            if (o == null) {
+                o = findFreeMethods(c);
+                freeMethods.put(c, o);
+            }
+            return (o instanceof Method[]) ? (Method[]) o : null;
+        }
+    }
+
+
+    private static Object findFreeMethods(Class c) {
+        // the interface method is accessible even if the driver's class is not public
+        Class api = Clob.class.isAssignableFrom(c) ? Clob.class : Blob.class.isAssignableFrom(c) ? Blob.class : c;
+        try {
+            return new Method[] {api.getMethod("free", new Class[0])};
+        } catch (NoSuchMethodException ignored) {
+        }
+        try {
+            return new Method[] {c.getMethod("isTemporary", new Class[0]), c.getMethod("freeTemporary", new Class[0])};
+        } catch (NoSuchMethodException ignored) {
+        }
+        return c;
+    }
+
+
+    /**
+     * Returns the number of connections closed or returned to the pool.
+     *
+     * @return the connection count
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+
+    /**
+     * Returns the number of closed statements, including the cached statements of closed connections.
+     *
+     * @return the statement count
+     */
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+
+    /**
+     * Returns the number of closed result sets.
+     *
+     * @return the result set count
+     */
+    public int getResultSetCount() {
+        return resultSetCount;
+    }
+
+
+    /**
+     * Returns the number of freed LOBs.
+     *
+     * @return the LOB count
+     */
+    public int getLobCount() {
+        return lobCount;
+    }
+
+
+    /**
+     * Returns the number of resources that failed to be released.
+     *
+     * @return the error count
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+
+    /**
+     * Returns the counts of released resources that are helpful for debugging.
+     *
+     * @return the counters
+     */
+    public String toString() {
+        return "ResourceRegistry(connections=" + connectionCount + "; statements=" + statementCount
+                + "; resultSets=" + resultSetCount + "; lobs=" + lobCount + "; errors=" + errorCount + ")";
+    }
+
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.TemplateModelException;
+
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+
+/**
+ * This class wraps {@code java.sql.SQLXML} and adapts it for using in FTL as a string or as a directive that writes
+ * the XML to the output in chunks, see {@link ReaderModel}. Like the stream it is based on, an XML value can be read
+ * only once.
+ *
+ * <p>{@code SQLXML} appeared in Java 6, so it is accessed via reflection to keep the class loadable in older JVMs.
+ */
+public class SQLXMLModel extends ReaderModel {
+
+
+    private static final Class SQLXML_CLASS;
+    private static final Method GET_CHARACTER_STREAM_METHOD;
+
+    static {
+        Class c = null;
+        Method m = null;
+        try {
+            c = Class.forName("java.sql.SQLXML");
+            m = c.getMethod("getCharacterStream", new Class[0]);
+        } catch (Exception ignored) {
+            c = null;
+        }
+        SQLXML_CLASS = c;
+        GET_CHARACTER_STREAM_METHOD = m;
+    }
+
+
+    private final Object xml;
+
+
+    public SQLXMLModel(Object xml, BeansWrapper wrapper) {
+        super(xml, wrapper);
+        if (!isSQLXML(xml)) {
+            throw new IllegalArgumentException("Illegal type of object: expected java.sql.SQLXML, got "
+                    + (xml == null ? "null" : xml.getClass().getName()));
+        }
+        this.xml = xml;
+    }
+
+
+    /**
+     * Determines whether the specified object is an instance of {@code java.sql.SQLXML}.
+     *
+     * @param o the object
+     * @return {@code true} if the object is an {@code SQLXML}, always {@code false} before Java 6
+     */
+    public static boolean isSQLXML(Object o) {
+        return SQLXML_CLASS != null && SQLXML_CLASS.isInstance(o);
+    }
+
+
+    protected Reader openReader() throws TemplateModelException {
+        try {
+            return (Reader) GET_CHARACTER_STREAM_METHOD.invoke(xml, new Object[0]);
+        } catch (InvocationTargetException e) {
+            throw new TemplateModelException(e.getTargetException());
+        } catch (IllegalAccessException e) {
+            throw new TemplateModelException(e);
+        }
+    }
+
+
+}
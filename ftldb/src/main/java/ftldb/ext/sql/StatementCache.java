@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * This class is a bounded LRU cache of {@link PreparedStatement}s and {@link CallableStatement}s of a connection keyed
+ * by their SQL text. It lets the same query or call be executed many times without re-parsing, and keeps the number of
+ * open cursors under control: the least recently used statement is closed when the cache is full.
+ *
+ * <p>Statements returned by the cache are shared, so they must not be closed by the caller and their results must be
+ * fully consumed before the same SQL text is requested again. Every statement obtained from the cache must be released
+ * via {@link #release(Statement)}: a statement evicted while it is in use is closed when its last user releases it.
+ */
+public class StatementCache {
+
+
+    /**
+     * The default maximum number of cached statements.
+     */
+    public static final int DEFAULT_MAX_SIZE = 20;
+
+
+    private final Connection connection;
+    private final LinkedHashMap statements = new LinkedHashMap(16, 0.75f, true);
+    // statement -> number of users that have not released it yet
+    private final HashMap leases = new HashMap();
+    private int maxSize;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+
+    /**
+     * Creates an empty cache for the specified connection.
+     *
+     * @param connection the connection to prepare statements in
+     * @param maxSize the maximum number of cached statements, {@code 0} disables caching
+     */
+    public StatementCache(Connection connection, int maxSize) {
+        checkMaxSize(maxSize);
+        this.connection = connection;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Returns a cached {@link PreparedStatement} for the specified SQL text or prepares a new one.
+     *
+     * @param sql the SQL text
+     * @return the prepared statement
+     * @throws SQLException if a database access error occurs
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return (PreparedStatement) get(new Key(sql, false));
+    }
+
+
+    /**
+     * Returns a cached {@link CallableStatement} for the specified SQL text or prepares a new one.
+     *
+     * @param sql the SQL text
+     * @return the callable statement
+     * @throws SQLException if a database access error occurs
+     */
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return (CallableStatement) get(new Key(sql, true));
+    }
+
+
+    private synchronized Statement get(Key key) throws SQLException {
+        Statement st = (Statement) statements.get(key);
+        if (st != null) {
+            hitCount++;
+        } else {
+            missCount++;
+            st = key.callable ? connection.prepareCall(key.sql) : connection.prepareStatement(key.sql);
+            if (maxSize > 0) {
+                statements.put(key, st);
+                trim();
+            }
+        }
+
+        int[] count = (int[]) leases.get(st);
+        if (count == null) {
+            leases.put(st, new int[]{1});
+        } else {
+            count[0]++;
+        }
+        return st;
+    }
+
+
+    /**
+     * Releases a statement obtained from this cache after its results are consumed. The statement is closed unless it
+     * is kept in the cache or is still used by another caller.
+     *
+     * @param st the statement to be released
+     * @throws SQLException if a database access error occurs
+     */
+    public synchronized void release(Statement st) throws SQLException {
+        int[] count = (int[]) leases.get(st);
+        if (count != null && --count[0] > 0) return;
+        leases.remove(st);
+
+        if (!statements.containsValue(st)) {
+            st.close();
+        }
+    }
+
+
+    private void trim() {
+        for (Iterator it = statements.values().iterator(); it.hasNext() && statements.size() > maxSize; ) {
+            Statement st = (Statement) it.next();
+            it.remove();
+            evictionCount++;
+            // a statement in use is closed when released
+            if (!leases.containsKey(st)) closeQuietly(st);
+        }
+    }
+
+
+    private static void closeQuietly(Statement st) {
+        try {
+            st.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of cached statements.
+     *
+     * @return the maximum size
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Sets the maximum number of cached statements. If the cache contains more statements, the least recently used
+     * ones are closed.
+     *
+     * @param maxSize the maximum number of cached statements, {@code 0} disables caching
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        checkMaxSize(maxSize);
+        this.maxSize = maxSize;
+        trim();
+    }
+
+
+    private static void checkMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Statement cache size must be non-negative: " + maxSize);
+        }
+    }
+
+
+    /**
+     * Returns the number of currently cached statements.
+     *
+     * @return the cache size
+     */
+    public synchronized int getSize() {
+        return statements.size();
+    }
+
+
+    /**
+     * Returns the number of requests served from the cache.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+
+    /**
+     * Returns the number of requests that caused a new statement to be prepared.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+
+    /**
+     * Returns the number of statements closed because the cache was full.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+
+    /**
+     * Closes all the cached statements and empties the cache. Statements in use are closed when released. Counters are
+     * not reset.
+     */
+    public synchronized void clear() {
+        for (Iterator it = statements.values().iterator(); it.hasNext(); ) {
+            Statement st = (Statement) it.next();
+            if (!leases.containsKey(st)) closeQuietly(st);
+        }
+        statements.clear();
+    }
+
+
+    /**
+     * Returns the cache statistics that are helpful for debugging.
+     *
+     * @return the size and counters
+     */
+    public synchronized String toString() {
+        return "StatementCache(size=" + statements.size() + "; maxSize=" + maxSize + "; hits=" + hitCount
+                + "; misses=" + missCount + "; evictions=" + evictionCount + ")";
+    }
+
+
+    private static final class Key {
+
+        private final String sql;
+        private final boolean callable;
+
+        private Key(String sql, boolean callable) {
+            this.sql = sql;
+            this.callable = callable;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return callable == k.callable && sql.equals(k.sql);
+        }
+
+        public int hashCode() {
+            return callable ? ~sql.hashCode() : sql.hashCode();
+        }
+
+    }
+
+
+}
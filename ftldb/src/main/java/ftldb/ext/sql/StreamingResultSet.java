@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * This class is a lazy forward-only view of a {@link ResultSet}. Unlike {@link FetchedResultSet}, rows are not placed
+ * in memory, but fetched from the cursor one by one while iterating, so the memory consumption does not depend on the
+ * query size. The other side of the coin is that the result set can be iterated only once.
+ *
+ * <p>The original result set (and its statement, if specified) is closed as soon as the last row is fetched or
+ * {@link #close()} is called.
+ *
+ * <p>If a {@link ResourceRegistry} is open, the LOBs fetched in a row are tracked by the result set rather than by
+ * the registry. They stay valid until the row is released by {@link #releaseRow(Object[])} or the result set is
+ * closed, so a long stream does not pile up LOBs until the end of the processing.
+ */
+public class StreamingResultSet {
+
+
+    public final ResultSetMetaData metaData;
+    public final String[] columnLabels;
+    public final Map columnIndices;
+
+    private final ColumnLabelIndex labelIndex;
+
+    private final ResultSet resultSet;
+    private final Statement statement;
+    private final IdentityHashMap rowResources = new IdentityHashMap();
+    private int rowCount;
+    private boolean closed;
+
+
+    /**
+     * Wraps the specified result set. Its metadata is read immediately, while rows are fetched on demand.
+     *
+     * @param rs the original result set
+     * @param statement the statement to be closed along with the result set (nullable)
+     * @param fetchSize the number of rows fetched in one round trip, {@code 0} means the driver's default
+     * @throws SQLException if a database access error occurs
+     */
+    public StreamingResultSet(ResultSet rs, Statement statement, int fetchSize) throws SQLException {
+        this.resultSet = rs;
+        this.statement = statement;
+
+        if (fetchSize > 0) {
+            rs.setFetchSize(fetchSize);
+        }
+
+        metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+
+        columnLabels = new String[columnCount];
+        columnIndices = new HashMap(columnLabels.length, 1);
+
+        for (int i = 0; i < columnCount; i++) {
+            columnLabels[i] = metaData.getColumnLabel(i + 1);
+            // if two columns have same labels, save only the 1st one
+            if (columnIndices.get(columnLabels[i]) == null) {
+                columnIndices.put(columnLabels[i], new Integer(i));
+            }
+        }
+        labelIndex = new ColumnLabelIndex(columnLabels);
+    }
+
+
+    /**
+     * Fetches the next row from the cursor. Nested cursors are fully fetched into {@link FetchedResultSet}s. When the
+     * cursor is exhausted, it is closed. The previous rows are not released.
+     *
+     * @return the next row or {@code null} if there are no more rows
+     * @throws SQLException if a database access error occurs
+     */
+    public synchronized Object[] nextRow() throws SQLException {
+        if (closed) return null;
+
+        if (!resultSet.next()) {
+            closeCursor();
+            if (rowResources.isEmpty()) {
+                ResourceRegistry.unregister(this);
+            }
+            return null;
+        }
+
+        // the row's LOBs are collected in a registry of their own, unless nothing is tracked at all
+        ResourceRegistry rowRegistry = null;
+        ResourceRegistry previous = null;
+        if (ResourceRegistry.getCurrent() != null) {
+            rowRegistry = ResourceRegistry.openDetached();
+            previous = ResourceRegistry.setCurrent(rowRegistry);
+        }
+
+        Object[] row = new Object[columnLabels.length];
+        try {
+            for (int i = 0; i < row.length; i++) {
+                Object o = resultSet.getObject(i + 1);
+                if (o instanceof ResultSet) {
+                    o = new FetchedResultSet((ResultSet) o);
+                } else {
+                    ResourceRegistry.registerValue(o);
+                }
+                row[i] = o;
+            }
+        } catch (SQLException e) {
+            if (rowRegistry != null) rowRegistry.close();
+            throw e;
+        } catch (RuntimeException e) {
+            if (rowRegistry != null) rowRegistry.close();
+            throw e;
+        } finally {
+            if (rowRegistry != null) ResourceRegistry.setCurrent(previous);
+        }
+
+        if (rowRegistry != null && !rowRegistry.isEmpty()) {
+            rowResources.put(row, rowRegistry);
+        }
+        rowCount++;
+
+        return row;
+    }
+
+
+    /**
+     * Frees the LOBs fetched in the specified row. The row's values must not be used afterwards. Does nothing if the
+     * row has no tracked LOBs or is already released.
+     *
+     * @param row a row returned by {@link #nextRow()}
+     */
+    public synchronized void releaseRow(Object[] row) {
+        ResourceRegistry rowRegistry = (ResourceRegistry) rowResources.remove(row);
+        if (rowRegistry == null) return;
+        rowRegistry.close();
+
+        if (closed && rowResources.isEmpty()) {
+            ResourceRegistry.unregister(this);
+        }
+    }
+
+
+    /**
+     * Returns the number of rows fetched so far.
+     *
+     * @return the fetched row count
+     */
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+
+    /**
+     * Determines whether the cursor is closed, i.e. exhausted or explicitly closed.
+     *
+     * @return {@code true} if no more rows can be fetched
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+
+    /**
+     * Releases all the rows that are not released yet and closes the original result set and its statement, unless
+     * they are already closed.
+     *
+     * @throws SQLException if a database access error occurs
+     */
+    public synchronized void close() throws SQLException {
+        ResourceRegistry.unregister(this);
+        try {
+            for (Iterator it = rowResources.values().iterator(); it.hasNext(); ) {
+                ((ResourceRegistry) it.next()).close();
+            }
+            rowResources.clear();
+        } finally {
+            closeCursor();
+        }
+    }
+
+
+    private void closeCursor() throws SQLException {
+        if (closed) return;
+        closed = true;
+        try {
+            resultSet.close();
+        } finally {
+            if (statement != null) statement.close();
+        }
+    }
+
+
+    /**
+     * Returns the original {@link ResultSet}'s metadata.
+     *
+     * @return the metadata
+     */
+    public ResultSetMetaData getMetaData() {
+        return metaData;
+    }
+
+
+    /**
+     * Returns the specified column's index starting from 0. This index is used to access FTL sequences.
+     *
+     * @param label the column's label
+     * @return the column's index or {@code null} if no column with such label exists
+     */
+    public Integer getColumnIndex(String label) {
+        return (Integer) columnIndices.get(label);
+    }
+
+
+    /**
+     * Returns the specified column's index starting from 0 without creating objects. This method is used by the FTL
+     * models to access cells by column labels.
+     *
+     * @param label the column's label
+     * @return the column's index or {@code -1} if no column with such label exists
+     */
+    public int indexOf(String label) {
+        return labelIndex.indexOf(label);
+    }
+
+
+}
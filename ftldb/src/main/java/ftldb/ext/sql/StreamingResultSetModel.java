@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.ext.beans.BeanModel;
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.template.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+
+/**
+ * This class wraps {@link StreamingResultSet} and adapts it for using in FTL both as a collection of rows, which can be
+ * iterated only once, and as a bean.
+ */
+public class StreamingResultSetModel extends BeanModel implements TemplateCollectionModel {
+
+
+    private final ObjectWrapper wrapper;
+    private final StreamingResultSet srs;
+    private boolean iterated;
+
+
+    public StreamingResultSetModel(StreamingResultSet srs, BeansWrapper wrapper) {
+        super(srs, wrapper);
+        this.wrapper = wrapper;
+        this.srs = srs;
+    }
+
+
+    /**
+     * Returns an iterator that fetches rows from the cursor one by one. The result set can be iterated only once.
+     * Taking the next row releases the previous one, so LOBs fetched in a row must not be used after the iteration
+     * has moved past it.
+     *
+     * @return the row iterator
+     * @throws TemplateModelException if the result set has already been iterated
+     */
+    public synchronized TemplateModelIterator iterator() throws TemplateModelException {
+        if (iterated) {
+            throw new TemplateModelException("Streaming result set can be iterated only once");
+        }
+        iterated = true;
+
+        return new TemplateModelIterator() {
+
+            private Object[] nextRow;
+            private Object[] currentRow;
+
+            public boolean hasNext() throws TemplateModelException {
+                if (nextRow == null) {
+                    try {
+                        nextRow = srs.nextRow();
+                    } catch (SQLException e) {
+                        throw new TemplateModelException(e);
+                    }
+                }
+                return nextRow != null;
+            }
+
+            public TemplateModel next() throws TemplateModelException {
+                if (!hasNext()) {
+                    throw new TemplateModelException("No more rows in streaming result set");
+                }
+                // the previous row is not released on fetching, since FTL fetches ahead before processing a row
+                if (currentRow != null) {
+                    srs.releaseRow(currentRow);
+                }
+                currentRow = nextRow;
+                nextRow = null;
+                return new StreamingResultSetRowModel(srs, currentRow, wrapper);
+            }
+
+        };
+    }
+
+
+    /**
+     * Returns the empty list. Iteration through the {@code super.values()} list causes an exception.
+     *
+     * @return the empty list
+     */
+    public TemplateCollectionModel values() {
+        return new SimpleCollection(new ArrayList(0), wrapper);
+    }
+
+
+}
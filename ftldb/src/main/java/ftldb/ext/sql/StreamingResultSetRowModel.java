@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import freemarker.template.*;
+
+import java.util.Arrays;
+
+
+/**
+ * This class wraps a row of {@link StreamingResultSet} and adapts it for using in FTL both as a sequence and as a hash.
+ */
+public class StreamingResultSetRowModel extends WrappingTemplateModel implements TemplateSequenceModel,
+        TemplateHashModelEx {
+
+
+    public final StreamingResultSet resultSet;
+    public final Object[] row;
+
+
+    public StreamingResultSetRowModel(StreamingResultSet srs, Object[] row, ObjectWrapper wrapper) {
+        super(wrapper);
+        this.resultSet = srs;
+        this.row = row;
+    }
+
+
+    /**
+     * Retrieves the i-th column in this row.
+     *
+     * @return the value of column at the specified index
+     */
+    public TemplateModel get(int index) throws TemplateModelException {
+        return wrap(row[index]);
+    }
+
+
+    /**
+     * Retrieves the value of the specified column in this row.
+     *
+     * @return the value of the specified column or {@code null} if there is no such column
+     */
+    public TemplateModel get(String key) throws TemplateModelException {
+        int index = resultSet.indexOf(key);
+        if (index == -1) return null;
+        return wrap(row[index]);
+    }
+
+
+    /**
+     * Returns the row length.
+     *
+     * @return the number of columns in this row
+     */
+    public int size() {
+        return row.length;
+    }
+
+
+    /**
+     * Returns a list of column names in this row.
+     *
+     * @return a list of column names ordered by position
+     */
+    public TemplateCollectionModel keys() throws TemplateModelException {
+        return new SimpleCollection(Arrays.asList(resultSet.columnLabels), getObjectWrapper());
+    }
+
+
+    /**
+     * Returns a list of values in this row.
+     *
+     * @return the list of values ordered by position
+     */
+    public TemplateCollectionModel values() throws TemplateModelException {
+        return new SimpleCollection(Arrays.asList(row), getObjectWrapper());
+    }
+
+
+    /**
+     * Determines whether the row is empty (contains no columns).
+     *
+     * @return {@code true} if the row has no columns
+     */
+    public boolean isEmpty() throws TemplateModelException {
+        return row.length == 0;
+    }
+
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.oracle;
+
+
+import oracle.sql.CLOB;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+
+/**
+ * This class is a buffered {@link Writer} to a {@link Clob}. Characters are accumulated in a buffer and written to
+ * the LOB in one call when the buffer is full, so the LOB gets a few large writes instead of many small ones. For an
+ * Oracle {@link CLOB} the buffer size is the LOB's optimal buffer size, which is a multiple of its chunk size, so every
+ * write except the last one is chunk-aligned.
+ */
+public class ClobWriter extends Writer {
+
+
+    /**
+     * The buffer size for LOBs that do not report their optimal buffer size.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 32768;
+
+
+    private final Clob clob;
+    private final char[] buffer;
+    private int count;
+    private long position;
+    private boolean closed;
+
+
+    /**
+     * Creates a writer to the specified LOB starting from the specified position with the LOB's optimal buffer size.
+     *
+     * @param clob the destination LOB
+     * @param position the position of the first character to be written, starting from 1
+     * @throws SQLException if a database access error occurs
+     */
+    public ClobWriter(Clob clob, long position) throws SQLException {
+        this(clob, position, getOptimalBufferSize(clob));
+    }
+
+
+    /**
+     * Creates a writer to the specified LOB starting from the specified position with the specified buffer size.
+     *
+     * @param clob the destination LOB
+     * @param position the position of the first character to be written, starting from 1
+     * @param bufferSize the number of characters written to the LOB in one call
+     */
+    public ClobWriter(Clob clob, long position, int bufferSize) {
+        if (position < 1) {
+            throw new IllegalArgumentException("LOB position must be positive: " + position);
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.clob = clob;
+        this.position = position;
+        this.buffer = new char[bufferSize];
+    }
+
+
+    /**
+     * Returns the optimal buffer size for writing to the specified LOB.
+     *
+     * @param clob the LOB
+     * @return the LOB's optimal buffer size or {@link #DEFAULT_BUFFER_SIZE} if it is unknown
+     * @throws SQLException if a database access error occurs
+     */
+    public static int getOptimalBufferSize(Clob clob) throws SQLException {
+        if (clob instanceof CLOB) {
+            int size = ((CLOB) clob).getBufferSize();
+            if (size > 0) return size;
+        }
+        return DEFAULT_BUFFER_SIZE;
+    }
+
+
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(cbuf, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+        }
+    }
+
+
+    public void write(int c) throws IOException {
+        ensureOpen();
+        buffer[count++] = (char) c;
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+    }
+
+
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            str.getChars(off, off + n, buffer, count);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+        }
+    }
+
+
+    /**
+     * Writes the buffered characters to the LOB. The next write may be not chunk-aligned.
+     *
+     * @throws IOException if a database access error occurs
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+    }
+
+
+    /**
+     * Writes the buffered characters to the LOB and closes the writer. The LOB itself is not freed.
+     *
+     * @throws IOException if a database access error occurs
+     */
+    public void close() throws IOException {
+        if (closed) return;
+        flushBuffer();
+        closed = true;
+    }
+
+
+    /**
+     * Returns the position in the LOB the next character will be written to. Buffered characters are considered
+     * written.
+     *
+     * @return the LOB position starting from 1
+     */
+    public long getPosition() {
+        return position + count;
+    }
+
+
+    private void flushBuffer() throws IOException {
+        if (count == 0) return;
+        try {
+            clob.setString(position, new String(buffer, 0, count));
+        } catch (SQLException e) {
+            throw (IOException) new IOException("Unable to write " + count + " character(s) to LOB at position "
+                    + position).initCause(e);
+        }
+        position += count;
+        count = 0;
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+    }
+
+
+}
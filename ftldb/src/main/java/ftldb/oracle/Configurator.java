@@ -38,6 +38,17 @@ public class Configurator extends ftldb.Configurator {
     }
 
 
+    /**
+     * The convenience method for {@link #setConfigurationIfChanged(java.io.InputStream)}.
+     *
+     * @param configXMLClob the new configuration as an XML clob
+     * @throws SQLException if a database access error occurs
+     */
+    public static void setConfigurationIfChanged(Clob configXMLClob) throws SQLException {
+        setConfigurationIfChanged(configXMLClob.getAsciiStream());
+    }
+
+
     /**
      * Returns FTLDB version as a string.
      *
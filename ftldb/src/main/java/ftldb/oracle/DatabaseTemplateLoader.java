@@ -17,10 +17,16 @@ package ftldb.oracle;
 
 
 import freemarker.cache.StatefulTemplateLoader;
+import ftldb.PrefetchingTemplateLoader;
+import ftldb.ext.sql.ResourceRegistry;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 
 /**
@@ -45,17 +51,33 @@ import java.sql.*;
  *
  * <p>If the checker function is not set, {@link #getLastModified} always returns {@code System.currentTimeMillis()}.
  *
+ * <p>Found locators (including missing templates) and timestamps can be cached for the specified check interval (see
+ * {@link #setCheckInterval(long)}), so that repeated lookups of the same template, e.g. by {@code #include} with the
+ * {@link freemarker.cache.NullCacheStorage}, do not call the database each time. Unlike the configuration's
+ * {@code templateUpdateDelay}, it also covers the finder call.
+ *
+ * <p>Templates that are known to be needed can be prefetched with {@link #prefetch(String[])}: their locators, sources
+ * and timestamps are loaded by a single SQL query and then served from memory. Without a check interval the prefetched
+ * data is valid only until the end of the processing that prefetched it.
+ *
  */
-public class DatabaseTemplateLoader implements StatefulTemplateLoader {
+public class DatabaseTemplateLoader implements StatefulTemplateLoader, PrefetchingTemplateLoader {
 
 
     private final Connection connection;
     private final String templateFinderCall;
     private final String templateLoaderCall;
     private final String templateCheckerCall;
+    private final String templateFinderFunc;
+    private final String templateLoaderFunc;
+    private final String templateCheckerFunc;
     private CallableStatement templateFinderCS;
     private CallableStatement templateLoaderCS;
     private CallableStatement templateCheckerCS;
+    private long checkInterval;
+    private final Map locatorCache = new HashMap();
+    private final Map timestampCache = new HashMap();
+    private final Map sourceCache = new HashMap();
 
 
     /**
@@ -69,9 +91,14 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
     public DatabaseTemplateLoader(Connection connection, String templateFinderFunc, String templateLoaderFunc,
                                   String templateCheckerFunc ) {
         this.connection = connection;
+        this.templateFinderFunc = templateFinderFunc;
+        this.templateLoaderFunc = templateLoaderFunc;
+        this.templateCheckerFunc = (templateCheckerFunc == null || "".equals(templateCheckerFunc.trim()))
+                                    ? null
+                                    : templateCheckerFunc;
         this.templateFinderCall = "{? = call " + templateFinderFunc + "(?)}";
         this.templateLoaderCall = "{? = call " + templateLoaderFunc + "(?)}";
-        this.templateCheckerCall = (templateCheckerFunc == null || "".equals(templateCheckerFunc.trim()))
+        this.templateCheckerCall = (this.templateCheckerFunc == null)
                                     ? null
                                     : "{? = call " + templateCheckerFunc + "(?)}";
     }
@@ -106,6 +133,163 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
     }
 
 
+    /**
+     * Returns the time during which found locators and timestamps are reused without calling the database.
+     *
+     * @return the check interval in milliseconds, {@code 0} means no caching
+     */
+    public synchronized long getCheckInterval() {
+        return checkInterval;
+    }
+
+
+    /**
+     * Sets the time during which found locators and timestamps are reused without calling the database. By default
+     * nothing is cached. Keep in mind that a modified, created or dropped template may not be noticed during this
+     * time.
+     *
+     * @param checkInterval the check interval in milliseconds, {@code 0} means no caching
+     */
+    public synchronized void setCheckInterval(long checkInterval) {
+        if (checkInterval < 0) {
+            throw new IllegalArgumentException("Check interval must be non-negative: " + checkInterval);
+        }
+        this.checkInterval = checkInterval;
+        if (checkInterval == 0) {
+            locatorCache.clear();
+            timestampCache.clear();
+            sourceCache.clear();
+        }
+    }
+
+
+    private CacheEntry getCacheEntry(Map cache, Object key) {
+        CacheEntry entry = (CacheEntry) cache.get(key);
+        if (entry == null) return null;
+
+        // without a check interval prefetched entries are used only once and only by the processing that loaded them
+        if (checkInterval == 0) {
+            cache.remove(key);
+            return entry.registry != null && entry.registry.isInEffect() ? entry : null;
+        }
+
+        if (System.currentTimeMillis() - entry.checked >= checkInterval) {
+            cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+
+    private void putCacheEntry(Map cache, Object key, Object value) {
+        if (checkInterval == 0) return;
+        cache.put(key, new CacheEntry(value, null));
+    }
+
+
+    private static void removeExpiredPrefetches(Map cache) {
+        for (Iterator it = cache.values().iterator(); it.hasNext(); ) {
+            CacheEntry entry = (CacheEntry) it.next();
+            if (entry.registry != null && entry.registry.isClosed()) {
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Loads the locators, sources and timestamps of the specified templates by a single SQL query calling the finder,
+     * loader and checker functions, so that subsequent lookups of these templates are served from memory. The
+     * prefetched data is kept for the check interval (see {@link #setCheckInterval(long)}). If the interval is
+     * {@code 0}, it is used only for the next lookup and only until the current processing ends, i.e. until the
+     * current {@link ResourceRegistry} is closed, so that a template source cannot be served by a later processing
+     * however old it is. Without an open registry nothing is prefetched in this case.
+     *
+     * <p>The names must be the same as passed to the loader by FreeMarker, i.e. absolute and normalized. The functions
+     * must be callable from SQL.
+     *
+     * @param names the templates' names
+     * @return the number of found templates
+     * @throws IOException if a database access error occurs
+     */
+    public synchronized int prefetch(String[] names) throws IOException {
+        if (names == null || names.length == 0) return 0;
+
+        // without a check interval prefetched entries are stamped with the processing that loads them
+        ResourceRegistry registry = null;
+        if (checkInterval == 0) {
+            registry = ResourceRegistry.getCurrent();
+            if (registry == null) return 0;
+            removeExpiredPrefetches(locatorCache);
+            removeExpiredPrefetches(timestampCache);
+            removeExpiredPrefetches(sourceCache);
+        }
+
+        int found = 0;
+
+        try {
+            PreparedStatement ps = connection.prepareStatement(getPrefetchQuery(names.length));
+            try {
+                for (int i = 0; i < names.length; i++) {
+                    ps.setString(i + 1, names[i]);
+                }
+                ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        String name = rs.getString(1);
+                        String locator = rs.getString(2);
+                        locatorCache.put(name, new CacheEntry(locator, registry));
+                        if (locator == null) continue;
+
+                        // the loader function returns a temporary LOB, which would live until the session ends
+                        Clob body = rs.getClob(3);
+                        String source = "";
+                        if (body != null) {
+                            try {
+                                source = body.getSubString(1, (int) body.length());
+                            } finally {
+                                ResourceRegistry.free(body);
+                            }
+                        }
+                        sourceCache.put(locator, new CacheEntry(source, registry));
+                        if (templateCheckerFunc != null) {
+                            timestampCache.put(locator, new CacheEntry(new Long(rs.getLong(4)), registry));
+                        }
+                        found++;
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            throw (IOException) new IOException("Unable to prefetch " + names.length + " template(s)").initCause(e);
+        }
+
+        return found;
+    }
+
+
+    private String getPrefetchQuery(int nameCount) {
+        StringBuffer names = new StringBuffer();
+        for (int i = 0; i < nameCount; i++) {
+            if (i > 0) names.append(" union all ");
+            names.append("select cast(? as varchar2(4000)) name from dual");
+        }
+
+        // rownum prevents merging of the inline view, so the finder is called once per name
+        return "select t.name, t.locator, "
+                + "case when t.locator is not null then " + templateLoaderFunc + "(t.locator) end body, "
+                + (templateCheckerFunc == null
+                    ? "null "
+                    : "case when t.locator is not null then " + templateCheckerFunc + "(t.locator) end ")
+                + "last_modified "
+                + "from (select n.name, " + templateFinderFunc + "(n.name) locator, rownum rn "
+                + "from (" + names + ") n) t";
+    }
+
+
     private CallableStatement getTemplateFinderCS() throws SQLException {
         if (templateFinderCS == null) {
             templateFinderCS = connection.prepareCall(templateFinderCall);
@@ -133,9 +317,14 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
 
 
     /**
-     * Closes the inner {@link CallableStatement}s that are used for getting template sources.
+     * Closes the inner {@link CallableStatement}s that are used for getting template sources and drops the cached
+     * locators and timestamps.
      */
     public synchronized void resetState() {
+        locatorCache.clear();
+        timestampCache.clear();
+        sourceCache.clear();
+
         if (templateFinderCS != null) {
             try {
                 templateFinderCS.close();
@@ -171,13 +360,18 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
      * @throws IOException if a database access error occurs
      */
     public synchronized Object findTemplateSource(String name) throws IOException {
+        CacheEntry cached = getCacheEntry(locatorCache, name);
+        if (cached != null) return cached.value;
+
         try {
             CallableStatement tf = getTemplateFinderCS();
             tf.registerOutParameter(1, Types.VARCHAR); //locator as an XML string
             tf.setString(2, name);
             tf.execute();
 
-            return tf.getString(1);
+            String locator = tf.getString(1);
+            putCacheEntry(locatorCache, name, locator);
+            return locator;
         } catch (SQLException e) {
             throw (IOException) new IOException("Unable to find template named " + name).initCause(e);
         }
@@ -191,17 +385,23 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
      * @param o the object storing the template's locator
      * @return the template's timestamp
      */
-    public long getLastModified(Object o) {
+    public synchronized long getLastModified(Object o) {
         if (templateCheckerCall == null) return System.currentTimeMillis();
 
         String locator = (String) o;
 
+        CacheEntry cached = getCacheEntry(timestampCache, locator);
+        if (cached != null) return ((Long) cached.value).longValue();
+
         try {
             CallableStatement tc = getTemplateCheckerCS();
             tc.registerOutParameter(1, Types.BIGINT);
             tc.setString(2, locator);
             tc.execute();
-            return tc.getLong(1);
+
+            long lastModified = tc.getLong(1);
+            putCacheEntry(timestampCache, locator, new Long(lastModified));
+            return lastModified;
         } catch (SQLException e) {
             throw new RuntimeException("Unable to check timestamp for template locator " + locator, e);
         }
@@ -218,6 +418,9 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
     public synchronized Reader getReader(Object o, String encoding) throws IOException {
         String locator = (String) o;
 
+        CacheEntry cached = getCacheEntry(sourceCache, locator);
+        if (cached != null) return new StringReader((String) cached.value);
+
         try {
             CallableStatement tl = getTemplateLoaderCS();
             tl.registerOutParameter(1, Types.CLOB);
@@ -260,4 +463,20 @@ public class DatabaseTemplateLoader implements StatefulTemplateLoader {
     }
 
 
+    private static final class CacheEntry {
+
+        private final Object value;
+        private final long checked;
+        // the registry of the processing that prefetched the entry without a check interval, otherwise null
+        private final ResourceRegistry registry;
+
+        private CacheEntry(Object value, ResourceRegistry registry) {
+            this.value = value;
+            this.checked = System.currentTimeMillis();
+            this.registry = registry;
+        }
+
+    }
+
+
 }
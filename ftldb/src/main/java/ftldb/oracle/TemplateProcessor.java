@@ -19,11 +19,13 @@ package ftldb.oracle;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateModelException;
+import oracle.sql.CLOB;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.sql.Array;
 import java.sql.Clob;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 
 
@@ -32,6 +34,9 @@ import java.sql.SQLException;
  * which can be directly mapped to PL/SQL types.
  *
  * <p>Important: Oracle {@code in out} parameters are mapped to 1-element arrays of corresponding Java type.
+ *
+ * <p>The output is written to CLOBs via a {@link ClobWriter}, i.e. in chunk-aligned portions of the LOB's optimal
+ * buffer size.
  */
 public class TemplateProcessor extends ftldb.TemplateProcessor {
 
@@ -65,7 +70,58 @@ public class TemplateProcessor extends ftldb.TemplateProcessor {
 
 
     /**
-     * Adds the specified SQL array to the current configuration as a sequence named {@code template_args}.
+     * Processes a template specified by its name straight into a new temporary CLOB created in the default
+     * connection. This avoids passing an {@code in out} LOB between PL/SQL and Java.
+     *
+     * @param templateName the template's name
+     * @return the processing result as a session duration temporary CLOB
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if a file access error occurs
+     * @throws TemplateException if a template processing error occurs
+     */
+    public static Clob processToTemporaryClob(String templateName)
+            throws SQLException, IOException, TemplateException {
+        Clob dest = createTemporaryClob();
+        boolean done = false;
+        try {
+            process(templateName, dest);
+            done = true;
+            return dest;
+        } finally {
+            // nobody gets the LOB, so it must be freed right away
+            if (!done) freeTemporaryClob(dest);
+        }
+    }
+
+
+    /**
+     * Processes a template represented as a {@link Clob} instance straight into a new temporary CLOB created in the
+     * default connection. This avoids passing an {@code in out} LOB between PL/SQL and Java.
+     *
+     * @param templateBody the template's source
+     * @return the processing result as a session duration temporary CLOB
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if a file access error occurs
+     * @throws TemplateException if a template processing error occurs
+     */
+    public static Clob processToTemporaryClob(Clob templateBody)
+            throws SQLException, IOException, TemplateException {
+        Clob dest = createTemporaryClob();
+        boolean done = false;
+        try {
+            process(templateBody, dest);
+            done = true;
+            return dest;
+        } finally {
+            // nobody gets the LOB, so it must be freed right away
+            if (!done) freeTemporaryClob(dest);
+        }
+    }
+
+
+    /**
+     * Sets the arguments for templates subsequently processed in the current thread without explicit arguments. They
+     * are available in templates as a sequence named {@code template_args}.
      *
      * @param templateArgs a collection of string template arguments
      * @throws SQLException if a database access error occurs
@@ -76,15 +132,37 @@ public class TemplateProcessor extends ftldb.TemplateProcessor {
     }
 
 
+    private static Clob createTemporaryClob() throws SQLException {
+        return CLOB.createTemporary(DriverManager.getConnection("jdbc:default:connection"), true,
+                CLOB.DURATION_SESSION);
+    }
+
+
+    private static void freeTemporaryClob(Clob clob) {
+        try {
+            ((CLOB) clob).freeTemporary();
+        } catch (SQLException ignored) {
+        }
+    }
+
+
     private static void process(Template template, Clob dest) throws SQLException, IOException, TemplateException {
-        Writer w = dest.setCharacterStream(0);
-        process(template, w);
-        w.close();
+        Writer w = new ClobWriter(dest, 1);
+        try {
+            process(template, w);
+        } finally {
+            w.close();
+        }
     }
 
 
     private static void process(String templateName, Clob dest) throws SQLException, IOException, TemplateException {
-        process(getTemplate(templateName), dest);
+        Writer w = new ClobWriter(dest, 1);
+        try {
+            process(templateName, w);
+        } finally {
+            w.close();
+        }
     }
 
 
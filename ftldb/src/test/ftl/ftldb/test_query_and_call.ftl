@@ -31,10 +31,21 @@ SQL collection base type: ${coll.baseTypeName}
 
 Fetch CLOB from query.
 <#assign clob = conn.query("select to_clob('loooong text') from dual")[0][0]/>
+CLOB length without reading it: ${clob.length()}
+Read CLOB part: "${clob.substring(4)}"
+Write CLOB in chunks without reading it into a string: "<@clob/>"
 Print CLOB: "${clob}"
 CLOB length: ${clob?length}
 
 
+Fetch BLOB from query.
+<#assign blob = conn.query("select to_blob(utl_raw.cast_to_raw('binary data')) from dual")[0][0]/>
+BLOB length: ${blob.length()}
+Write BLOB as base64: "<@blob/>"
+Write BLOB as hex in lines of 8 characters:
+<@blob encoding = "hex" line_length = 8/>
+
+
 Fetch SQL structure (object type) from query.
 <#assign struct = conn.query("select sys.odciobject('duck', 'goose') from dual")[0][0]/>
 Print SQL structure: {<#list struct as i>field#${(i?index+1)?c} : "${i}"<#sep>, </#list>}
@@ -137,6 +148,80 @@ Print transposed result:
 </#list>
 }
 
+--------------------------------------------------------------------------------
+
+Execute query with fetch size 2 (the connection's default is ${conn.fetchSize}).
+<#assign res = conn.query("select rownum n, 'row_' || rownum label from dual connect by level <= 5", [], 2)/>
+Print rows:
+{
+<#list res as r>
+  row#${r.N}: "LABEL" = ${r.LABEL}
+</#list>
+}
+
+--------------------------------------------------------------------------------
+
+Execute streaming query with fetch size 2.
+<#assign res = conn.stream("select rownum n, 'row_' || rownum label from dual connect by level <= 5", [], 2)/>
+Print rows while fetching:
+{
+<#list res as r>
+  row#${r.N}: "LABEL" = ${r.LABEL}
+</#list>
+}
+Fetched rows: ${res.rowCount}, cursor closed: ${res.closed?c}
+
+--------------------------------------------------------------------------------
+
+Execute query fetching the result by columns.
+<#assign res = conn.queryColumnar("select rownum n, 'row_' || mod(rownum, 2) label from dual connect by level <= 5")/>
+Print rows:
+{
+<#list res as r>
+  row#${r.N}: "LABEL" = ${r.LABEL}
+</#list>
+}
+Print transposed result without copying:
+{
+<#list res.transpose() as col>
+  "${res.metaData.columnName(col?index+1)}" (${res.getStorageKind(col?index)}) : [<#list col as val>${val}<#sep>, </#list>]
+</#list>
+}
+
+--------------------------------------------------------------------------------
+
+Execute the same query in a loop: the statement is parsed once and then taken from the cache.
+<#list 1..3 as i>
+<#assign res = conn.query("select :1 * 10 n from dual", [i])/>
+  ${i} * 10 = ${res[0].N}
+</#list>
+Statement cache: ${conn.statementCache}
+
+--------------------------------------------------------------------------------
+
+Insert 7 rows in batches of 3 (the connection's default batch size is ${conn.batchSize}).
+<#assign void = conn.call("create table ftldb_batch_test (n number, label varchar2(10))", {}, {})/>
+<#assign rows = []/>
+<#list 1..7 as i><#assign rows = rows + [[i, "row_" + i]]/></#list>
+<#assign counts = conn.batch("insert into ftldb_batch_test values (:1, :2)", rows, 3)/>
+Update counts: [<#list counts as c>${c}<#sep>, </#list>]
+<#assign res = conn.query("select count(*) cnt, sum(n) total from ftldb_batch_test")/>
+Inserted rows: ${res[0].CNT}, sum: ${res[0].TOTAL}
+<#assign void = conn.rollback()/>
+<#assign void = conn.call("drop table ftldb_batch_test", {}, {})/>
+
+--------------------------------------------------------------------------------
+
+Execute independent queries in parallel and print the results in order of the query names.
+<#assign res = conn.parallelQuery({
+  "one" : "select 1 n from dual",
+  "two" : ["select :1 n from dual", [2]],
+  "three" : ["select count(*) n from dual connect by level <= :1", [3]]
+})/>
+<#list res?keys as name>
+  ${name} = ${res[name][0].N}
+</#list>
+
 
 Close connection.
 <#assign void = conn.close()/>
@@ -0,0 +1,23 @@
+<#--
+
+    Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+-->
+<@template name = "@ftldb/test_result_cache.ftl"/>
+<#assign n = (shared_hash.get("result_cache_test") + 1)!1/>
+<#assign void = shared_hash.put("result_cache_test", n)/>
+-- ${template_name()} START --
+Processed ${n} time(s), arguments: [<#list template_args as arg>"${arg}"<#sep>, </#list>]
+-- ${template_name()} END --
@@ -20,6 +20,12 @@
 Get key "v" from the shared hash.
 <#assign v = shared_hash.get("v")>
 Content of V: [<#list v as i>"${i}"<#sep>, </#list>]
+Put key "w" unless it is set.
+first put: ${shared_hash.putIfAbsent("w", 1)!"saved"}, second put: ${shared_hash.putIfAbsent("w", 2)!"saved"}
+Count calls in key "n".
+<#list 1..3 as i>call #${shared_hash.increment("n")}<#sep>, </#list>
+Render the body once and then reuse the output.
+<#list 1..3 as i><@shared_hash.memo key = "m">rendered at call #${shared_hash.increment("n")}</@shared_hash.memo><#sep>, </#list>
 Clean up the shared_hash.
 <#assign void = shared_hash.clear()>
 -- ${template_name()} END --
@@ -51,4 +51,22 @@ list current dir files:
 <#list res.stdout as line>
 ${line}
 </#list>
+
+<#assign res = shell_exec(["java", "-version"], {"timeout" : 60000, "output_limit" : 10})/>
+run "java -version" with timeout and output limit of 10 characters:
+<#list res.stderr as line>
+${line}
+</#list>
+exit code: ${res.exit_code}, truncated: ${res.truncated?c}
+
+run "java -version" streaming stdout to the template output:
+<@shell_exec command = ["java", "-version"] timeout = 60000/>
+
+run an invalid "java" command streaming stdout to the template output:
+<#attempt>
+<@shell_exec command = ["java", "-no-such-option"] timeout = 60000/>
+not failed
+<#recover>
+failed on the non-zero exit code
+</#attempt>
 -- ${template_name()} END --
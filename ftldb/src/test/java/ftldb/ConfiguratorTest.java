@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb;
+
+
+import freemarker.template.Configuration;
+import ftldb.ext.WorkerPool;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+
+public class ConfiguratorTest {
+
+    private static final String CONFIG_XML = "config/ftldb_config.xml";
+
+    private static Configuration init() throws Exception {
+        Configurator.setConfigurationIfChanged(new FileInputStream(new File(CONFIG_XML)));
+        System.out.println("Init time: " + Configurator.getInitTime() + " ms");
+        return Configurator.getConfiguration();
+    }
+
+    @Test
+    public void testConfigurationReuse() throws Exception {
+        Configurator.dropConfiguration();
+        Configuration cfg = init();
+        assertSame(cfg, init());
+
+        Configurator.setConfigurationSetting("number_format", "0.##");
+        Configuration changed = init();
+        assertNotSame(cfg, changed);
+        assertSame(changed, init());
+
+        Configurator.dropConfiguration();
+        assertNotSame(changed, init());
+
+        // a plain init always creates a new configuration
+        cfg = Configurator.getConfiguration();
+        Configurator.setConfiguration(new FileInputStream(new File(CONFIG_XML)));
+        assertNotSame(cfg, Configurator.getConfiguration());
+    }
+
+    @Test
+    public void testInitAfterChange() throws Exception {
+        Configuration cfg = init();
+        Configurator.setConfigurationSetting("number_format", "0.##");
+        assertNotSame(cfg, init());
+
+        cfg = Configurator.getConfiguration();
+        Configurator.setConfiguration(new DefaultConfiguration());
+        assertNotSame(cfg, init());
+
+        Configurator.dropConfiguration();
+        assertNotNull(init());
+    }
+
+    @Test
+    public void testReplacedConfigurationIsClosed() throws Exception {
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        Configurator.setConfiguration(cfg);
+        WorkerPool workers = cfg.getQueryWorkers();
+
+        Configurator.setConfiguration(new DefaultConfiguration());
+        try {
+            workers.submit(null);
+            fail("Worker pool of a replaced configuration is not shut down");
+        } catch (IllegalStateException expected) {
+        }
+        assertNotSame(workers, cfg.getQueryWorkers());
+        Configurator.dropConfiguration();
+    }
+
+    @Test
+    public void testKeptConfigurationIsReset() throws Exception {
+        Configurator.setConfiguration(new FileInputStream(new File(CONFIG_XML)));
+        DefaultConfiguration cfg = (DefaultConfiguration) Configurator.getConfiguration();
+        cfg.setResultCacheSize(10);
+        TemplateResultCache resultCache = cfg.getResultCache();
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(new StringReader("${shared_hash.increment(\"n\")}"), sw);
+        assertEquals("1", sw.toString());
+
+        assertSame(cfg, init());
+        assertNotSame(resultCache, cfg.getResultCache());
+        sw = new StringWriter();
+        TemplateProcessor.process(new StringReader("${shared_hash.increment(\"n\")}"), sw);
+        assertEquals("1", sw.toString());
+    }
+
+}
@@ -16,9 +16,18 @@
 package ftldb;
 
 
+import freemarker.cache.SoftCacheStorage;
+import freemarker.cache.StringTemplateLoader;
 import org.junit.Test;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 
 public class TemplateProcessorTest {
@@ -59,11 +68,253 @@ public class TemplateProcessorTest {
         });
     }
 
+    @Test
+    public void testParallelCommandLine() throws Exception {
+        String[] calls = {
+                "@ftldb/include/test_include.ftl", "!", "@ftldb/test_template_line.ftl", "!",
+                "@ftldb/include/test_include.ftl", "!", "@ftldb/test_template_line.ftl"
+        };
+        String[] parallelCalls = new String[calls.length + 2];
+        parallelCalls[0] = "-p";
+        parallelCalls[1] = "3";
+        System.arraycopy(calls, 0, parallelCalls, 2, calls.length);
+
+        assertEquals(captureCommandLine(calls), captureCommandLine(parallelCalls));
+    }
+
+    private static String captureCommandLine(String[] args) throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            CommandLine.main(args);
+        } finally {
+            System.setOut(stdout);
+        }
+        String ret = bytes.toString();
+        System.out.println(ret);
+        return ret;
+    }
+
     @Test
     public void testInclude() throws Exception {
         process("@ftldb/include/test_include.ftl");
     }
 
+    @Test
+    public void testResultCache() throws Exception {
+        Configurator.setConfiguration(new FileInputStream(new File("config/ftldb_config.xml")));
+        DefaultConfiguration cfg = (DefaultConfiguration) Configurator.getConfiguration();
+        // results are bound to template instances, which the test config's NullCacheStorage does not keep
+        cfg.setCacheStorage(new SoftCacheStorage());
+        cfg.setResultCacheSize(10);
+
+        String[] results = new String[3];
+        String[][] args = {{"a", "b"}, {"a", "b"}, {"c"}};
+        for (int i = 0; i < results.length; i++) {
+            StringWriter sw = new StringWriter();
+            TemplateProcessor.setArguments(args[i]);
+            TemplateProcessor.process("@ftldb/test_result_cache.ftl", sw);
+            results[i] = sw.toString();
+            System.out.println(results[i]);
+        }
+
+        assertEquals(results[0], results[1]);
+        assertFalse(results[0].equals(results[2]));
+        assertEquals(1, cfg.getResultCache().getHitCount());
+    }
+
+    @Test
+    public void testResultCacheWithUnreliableTimestamps() throws Exception {
+        final int[] lookups = {0};
+        StringTemplateLoader loader = new StringTemplateLoader() {
+            public Object findTemplateSource(String name) {
+                lookups[0]++;
+                return super.findTemplateSource(name);
+            }
+
+            // like a database loader without a checker function
+            public long getLastModified(Object templateSource) {
+                return System.currentTimeMillis();
+            }
+        };
+        loader.putTemplate("unreliable.ftl", "${template_args[0]}");
+
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        cfg.setTemplateLoader(loader);
+        cfg.setTemplateUpdateDelayMilliseconds(0);
+        cfg.setResultCacheSize(10);
+        Configurator.setConfiguration(cfg);
+
+        for (int i = 0; i < 5; i++) {
+            StringWriter sw = new StringWriter();
+            TemplateProcessor.process("unreliable.ftl", new String[]{"x"}, sw);
+            assertEquals("x", sw.toString());
+            Thread.sleep(2);
+        }
+
+        // results of reloaded templates replace each other, and the source is looked up by the template cache only
+        assertEquals(1, cfg.getResultCache().getSize());
+        assertEquals(5, lookups[0]);
+    }
+
+    private static class PrefetchingStringTemplateLoader extends StringTemplateLoader
+            implements PrefetchingTemplateLoader {
+
+        private final StringBuffer prefetched = new StringBuffer();
+
+        public int prefetch(String[] names) {
+            int found = 0;
+            for (int i = 0; i < names.length; i++) {
+                prefetched.append(names[i]).append(';');
+                if (super.findTemplateSource(names[i]) != null) found++;
+            }
+            return found;
+        }
+
+    }
+
+    @Test
+    public void testPrefetchTemplates() throws Exception {
+        PrefetchingStringTemplateLoader loader = new PrefetchingStringTemplateLoader();
+        loader.putTemplate("a.ftl", "a");
+        loader.putTemplate("main.ftl", "${prefetch_templates([\"a.ftl\", \"b.ftl\"])}<#include \"a.ftl\"/>");
+
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        cfg.setTemplateLoader(loader);
+        Configurator.setConfiguration(cfg);
+
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process("main.ftl", sw);
+        assertEquals("1a", sw.toString());
+        assertEquals("a.ftl;b.ftl;", loader.prefetched.toString());
+
+        // other loaders are left alone
+        assertEquals("0", processBody("${prefetch_templates([\"a.ftl\"])}"));
+    }
+
+    // renders the template in parallel threads, each passing "t<thread number>" as the only argument
+    private static String[] renderConcurrently(final String templBody, int threadCount) throws Exception {
+        final String[] results = new String[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        StringWriter sw = new StringWriter();
+                        TemplateProcessor.process(new StringReader(templBody), new String[]{"t" + n}, sw);
+                        results[n] = sw.toString();
+                    } catch (Exception e) {
+                        results[n] = e.toString();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        return results;
+    }
+
+    @Test
+    public void testConcurrentSharedHash() throws Exception {
+        Configurator.setConfiguration(new FileInputStream(new File("config/ftldb_config.xml")));
+        String[] results = renderConcurrently(""
+                + "<#list 1..200 as i><#assign void = shared_hash.increment(\"n\")/></#list>"
+                + "<@shared_hash.memo key=\"m\">${template_args[0]}:${shared_hash.increment(\"renders\")}"
+                + "</@shared_hash.memo>", 4);
+
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(results[0], results[i]);
+        }
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(new StringReader("${shared_hash.get(\"n\")?c} ${shared_hash.get(\"renders\")?c}"),
+                sw);
+        assertEquals("800 1", sw.toString());
+    }
+
+    @Test
+    public void testConcurrentArguments() throws Exception {
+        Configurator.setConfiguration(new FileInputStream(new File("config/ftldb_config.xml")));
+        String[] results = renderConcurrently(
+                "<#list 1..200 as i><#list template_args as arg>${arg}</#list></#list>", 4);
+
+        for (int i = 0; i < results.length; i++) {
+            StringBuffer expected = new StringBuffer();
+            for (int j = 0; j < 200; j++) expected.append("t").append(i);
+            assertEquals(expected.toString(), results[i]);
+        }
+    }
+
+    @Test
+    public void testWatchingFileTemplateLoader() throws Exception {
+        File dir = File.createTempFile("ftldb", "");
+        dir.delete();
+        File sub = new File(dir, "sub");
+        sub.mkdirs();
+        File templ = new File(sub, "watched.ftl");
+        writeFile(templ, "1");
+
+        final List sources = new ArrayList();
+        WatchingFileTemplateLoader loader = new WatchingFileTemplateLoader(dir) {
+            public Object findTemplateSource(String name) throws IOException {
+                Object source = super.findTemplateSource(name);
+                sources.add(source);
+                return source;
+            }
+        };
+        try {
+            DefaultConfiguration cfg = new DefaultConfiguration();
+            cfg.setTemplateLoader(loader);
+            cfg.setTemplateUpdateDelayMilliseconds(0);
+            Configurator.setConfiguration(cfg);
+
+            assertEquals("1", processWatched());
+            assertEquals("1", processWatched());
+            assertEquals("1", processWatched());
+
+            // every render looks the template up, but the file is found once and then served from the cache, while
+            // a plain file loader creates a new file object on each lookup
+            assertEquals(3, sources.size());
+            assertSame(sources.get(0), sources.get(1));
+            assertSame(sources.get(0), sources.get(2));
+            FileTemplateLoader plain = new FileTemplateLoader(dir);
+            assertNotSame(plain.findTemplateSource("@sub/watched.ftl"), plain.findTemplateSource("@sub/watched.ftl"));
+
+            // the timestamp must differ for the template cache to reload the template
+            writeFile(templ, "2");
+            templ.setLastModified(templ.lastModified() + 2000);
+            long deadline = System.currentTimeMillis() + 30000;
+            while (!"2".equals(processWatched()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("2", processWatched());
+            assertNotSame(sources.get(0), sources.get(sources.size() - 1));
+        } finally {
+            loader.close();
+            templ.delete();
+            sub.delete();
+            dir.delete();
+        }
+    }
+
+    private static String processWatched() throws Exception {
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process("@sub/watched.ftl", sw);
+        return sw.toString();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Writer w = new FileWriter(file);
+        try {
+            w.write(content);
+        } finally {
+            w.close();
+        }
+    }
+
     @Test
     public void testText() throws Exception {
         processBody("<#assign X = 777/>\nX = ${X?c}");
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class WorkerPoolTest {
+
+    private static final class BlockingJob implements WorkerPool.Job {
+
+        private boolean released;
+
+        public synchronized Object run() throws InterruptedException {
+            while (!released) wait();
+            return Thread.currentThread().getName();
+        }
+
+        private synchronized void release() {
+            released = true;
+            notifyAll();
+        }
+
+    }
+
+    private static final WorkerPool.Job THREAD_NAME = new WorkerPool.Job() {
+        public Object run() {
+            return Thread.currentThread().getName();
+        }
+    };
+
+    @Test
+    public void testExecuteOnBusyPool() throws Exception {
+        WorkerPool pool = new WorkerPool("test-pool", 1);
+        BlockingJob blocking = new BlockingJob();
+        try {
+            WorkerPool.Task blocked = pool.execute(blocking);
+
+            // a submitted job waits for the busy thread, an executed one gets a thread of its own
+            WorkerPool.Task queued = pool.submit(THREAD_NAME);
+            WorkerPool.Task dedicated = pool.execute(THREAD_NAME);
+            assertTrue(dedicated.await(10000));
+            assertEquals("test-pool-dedicated", dedicated.get());
+            assertFalse(queued.isDone());
+
+            blocking.release();
+            assertEquals("test-pool-1", blocked.get());
+            assertEquals("test-pool-1", queued.get());
+        } finally {
+            blocking.release();
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class BinaryTextEncoderTest {
+
+    private static String encode(byte[] data, String encoding, int lineLength) throws Exception {
+        StringWriter out = new StringWriter();
+        BinaryTextEncoder encoder = new BinaryTextEncoder(out, encoding, lineLength);
+        encoder.write(data);
+        encoder.close();
+        return out.toString();
+    }
+
+    private static String encodeInPieces(byte[] data, String encoding, int lineLength, int pieceLength)
+            throws Exception {
+        StringWriter out = new StringWriter();
+        BinaryTextEncoder encoder = new BinaryTextEncoder(out, encoding, lineLength);
+        for (int off = 0; off < data.length; off += pieceLength) {
+            encoder.write(data, off, Math.min(pieceLength, data.length - off));
+            encoder.flush();
+        }
+        encoder.close();
+        return out.toString();
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    @Test
+    public void testBase64Padding() throws Exception {
+        assertEquals("", encode("".getBytes("US-ASCII"), BinaryTextEncoder.BASE64, 0));
+        assertEquals("Zm9v", encode("foo".getBytes("US-ASCII"), BinaryTextEncoder.BASE64, 0));
+        assertEquals("Zm9vYg==", encode("foob".getBytes("US-ASCII"), BinaryTextEncoder.BASE64, 0));
+        assertEquals("Zm9vYmE=", encode("fooba".getBytes("US-ASCII"), BinaryTextEncoder.BASE64, 0));
+        assertEquals("/w==", encode(new byte[]{(byte) 0xFF}, BinaryTextEncoder.BASE64, 0));
+        assertEquals("//8=", encode(new byte[]{(byte) 0xFF, (byte) 0xFF}, BinaryTextEncoder.BASE64, 0));
+    }
+
+    @Test
+    public void testCarryOver() throws Exception {
+        // pieces leave 1 or 2 bytes of a base64 group pending, and the output spans several internal buffers
+        byte[] data = sequence(30001);
+        String whole = encode(data, BinaryTextEncoder.BASE64, 0);
+        assertEquals(40004, whole.length());
+        assertEquals(whole, encodeInPieces(data, BinaryTextEncoder.BASE64, 0, 1));
+        assertEquals(whole, encodeInPieces(data, BinaryTextEncoder.BASE64, 0, 2));
+        assertEquals(whole, encodeInPieces(data, BinaryTextEncoder.BASE64, 0, 4097));
+
+        String hex = encode(data, BinaryTextEncoder.HEX, 0);
+        assertEquals(60002, hex.length());
+        assertEquals(hex, encodeInPieces(data, BinaryTextEncoder.HEX, 0, 4097));
+    }
+
+    @Test
+    public void testLineLength() throws Exception {
+        byte[] data = "foobar".getBytes("US-ASCII");
+        assertEquals("Zm9v\nYmFy", encode(data, BinaryTextEncoder.BASE64, 4));
+        assertEquals("Zm9\nvYm\nFy", encode(data, BinaryTextEncoder.BASE64, 3));
+        assertEquals("Zm9vYmFy", encode(data, BinaryTextEncoder.BASE64, 8));
+        assertEquals("Zm9vYg\n==", encode("foob".getBytes("US-ASCII"), BinaryTextEncoder.BASE64, 6));
+        assertEquals("666\nF6F\n626\n172", encode(data, BinaryTextEncoder.HEX, 3));
+
+        // line breaks do not depend on how the bytes are written
+        byte[] large = sequence(10000);
+        String whole = encode(large, BinaryTextEncoder.BASE64, 76);
+        assertEquals(whole, encodeInPieces(large, BinaryTextEncoder.BASE64, 76, 5));
+        String[] lines = whole.split("\n");
+        for (int i = 0; i < lines.length - 1; i++) {
+            assertEquals(76, lines[i].length());
+        }
+    }
+
+    @Test
+    public void testHex() throws Exception {
+        assertEquals("00017F80ABCDEFFF", encode(new byte[]{0x00, 0x01, 0x7F, (byte) 0x80, (byte) 0xAB, (byte) 0xCD,
+                (byte) 0xEF, (byte) 0xFF}, BinaryTextEncoder.HEX, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedEncoding() throws Exception {
+        new BinaryTextEncoder(new StringWriter(), "base32", 0);
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import ftldb.Configurator;
+import ftldb.DefaultConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+
+public class ConnectionPoolTest {
+
+    private static final String URL = "jdbc:h2:mem:connection_pool_test;DB_CLOSE_DELAY=-1";
+
+    private ConnectionPool pool;
+
+    private ConnectionAdapter getConnection() throws SQLException {
+        Properties info = new Properties();
+        info.setProperty("user", "sa");
+        info.setProperty("password", "");
+        return pool.getConnection(URL, info);
+    }
+
+    private static int count(ConnectionAdapter conn, String sql) throws SQLException {
+        Statement st = conn.getConnection().createStatement();
+        try {
+            ResultSet rs = st.executeQuery(sql);
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            st.close();
+        }
+    }
+
+    @After
+    public void closePool() {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    public void testExhaustion() throws Exception {
+        pool = new ConnectionPool(2, 0, null);
+        ConnectionAdapter c1 = getConnection();
+        ConnectionAdapter c2 = getConnection();
+        assertTrue(c1.isPooled());
+        assertEquals(2, pool.getActiveCount());
+
+        try {
+            getConnection();
+            fail("Exhausted pool returned a connection");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Connection pool is exhausted"));
+        }
+
+        c2.close();
+        assertSame(c2, getConnection());
+        c1.close();
+    }
+
+    @Test
+    public void testReturnAndDoubleClose() throws Exception {
+        pool = new ConnectionPool(1, 0, null);
+        ConnectionAdapter conn = getConnection();
+        conn.getConnection().createStatement().execute("create table pool_rollback (id int)");
+        conn.getConnection().commit();
+        conn.getConnection().createStatement().execute("insert into pool_rollback values (1)");
+
+        conn.close();
+        conn.close();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        // the same connection is reused, and its uncommitted changes are rolled back
+        ConnectionAdapter reused = getConnection();
+        assertSame(conn, reused);
+        assertFalse(reused.getConnection().isClosed());
+        assertEquals(0, count(reused, "select count(*) from pool_rollback"));
+        assertEquals(1, pool.getActiveCount());
+
+        reused.getConnection().createStatement().execute("drop table pool_rollback");
+        reused.close();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        pool = new ConnectionPool(2, 50, null);
+        ConnectionAdapter c1 = getConnection();
+        ConnectionAdapter c2 = getConnection();
+        c1.close();
+        c2.close();
+        assertEquals(0, pool.evictIdleConnections());
+        assertEquals(2, pool.getIdleCount());
+
+        Thread.sleep(100);
+        assertEquals(2, pool.evictIdleConnections());
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(c1.getConnection().isClosed());
+        assertTrue(c2.getConnection().isClosed());
+
+        // expired connections are also evicted when the pool is accessed
+        ConnectionAdapter c3 = getConnection();
+        c3.close();
+        Thread.sleep(100);
+        ConnectionAdapter c4 = getConnection();
+        assertNotSame(c3, c4);
+        assertTrue(c3.getConnection().isClosed());
+        c4.close();
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        pool = new ConnectionPool(1, 0, "select 1 from dual");
+        ConnectionAdapter conn = getConnection();
+        conn.close();
+
+        // a connection broken while idle is discarded and replaced
+        conn.getConnection().close();
+        ConnectionAdapter replaced = getConnection();
+        assertNotSame(conn, replaced);
+        assertFalse(replaced.getConnection().isClosed());
+        assertEquals(1, pool.getActiveCount());
+        assertTrue(pool.toString(), pool.toString().indexOf("invalid=1") >= 0);
+        replaced.close();
+
+        pool.close();
+        pool = new ConnectionPool(1, 0, "select * from no_such_table");
+        conn = getConnection();
+        conn.close();
+        assertNotSame(conn, getConnection());
+        assertTrue(conn.getConnection().isClosed());
+    }
+
+    @Test
+    public void testReplacedConfiguration() throws Exception {
+        DefaultConfiguration cfg = new DefaultConfiguration();
+        cfg.setConnectionPoolSize(1);
+        Configurator.setConfiguration(cfg);
+        pool = cfg.getConnectionPool();
+        ConnectionAdapter conn = getConnection();
+        conn.close();
+        assertFalse(conn.getConnection().isClosed());
+
+        // the idle connections of a replaced configuration's pool must not stay open
+        Configurator.setConfiguration(new DefaultConfiguration());
+        assertTrue(conn.getConnection().isClosed());
+        assertEquals(0, pool.getIdleCount());
+        Configurator.dropConfiguration();
+    }
+
+    @Test
+    public void testClosedPool() throws Exception {
+        pool = new ConnectionPool(1, 0, null);
+        ConnectionAdapter conn = getConnection();
+        pool.close();
+
+        // a connection in use is closed on return
+        conn.close();
+        assertTrue(conn.getConnection().isClosed());
+        assertEquals(0, pool.getIdleCount());
+
+        try {
+            getConnection();
+            fail("Closed pool returned a connection");
+        } catch (SQLException e) {
+            assertEquals("Connection pool is closed", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014-2016 Victor Osolovskiy, Sergey Navrotskiy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ftldb.ext.sql;
+
+
+import ftldb.Configurator;
+import ftldb.TemplateProcessor;
+import freemarker.ext.beans.BeansWrapperBuilder;
+import freemarker.template.Configuration;
+import freemarker.template.TemplateModelIterator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+
+public class ResourceRegistryTest {
+
+    private static final String URL = "jdbc:h2:mem:resource_registry_test;DB_CLOSE_DELAY=-1";
+
+    private ConnectionAdapter conn;
+
+    @Before
+    public void createTable() throws Exception {
+        conn = new ConnectionAdapter(DriverManager.getConnection(URL, "sa", ""));
+        Statement st = conn.getConnection().createStatement();
+        st.execute("create table lobs (id int, txt clob)");
+        st.execute("insert into lobs values (1, 'one'), (2, 'two'), (3, 'three')");
+        st.close();
+        conn.commit();
+    }
+
+    @After
+    public void dropTable() throws Exception {
+        Statement st = conn.getConnection().createStatement();
+        st.execute("drop table lobs");
+        st.close();
+        conn.close();
+    }
+
+    private static boolean isFreed(Object clob) {
+        try {
+            ((Clob) clob).length();
+            return false;
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    @Test
+    public void testLeftoverConnectionAndStream() throws Exception {
+        Configurator.setConfiguration(new FileInputStream(new File("config/ftldb_config.xml")));
+        String templ = ""
+                + "<#assign c = new_connection(\"" + URL + "\", \"sa\", \"\")/>\n"
+                + "<#list c.stream(\"select id from lobs order by id\") as r>${r.ID}<#break></#list>\n";
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(new StringReader(templ), sw);
+        assertEquals("1\n", sw.toString());
+
+        ResourceRegistry closed = ResourceRegistry.getLastClosed();
+        assertEquals(closed.toString(), 1, closed.getConnectionCount());
+        assertEquals(closed.toString(), 1, closed.getResultSetCount());
+        assertEquals(closed.toString(), 0, closed.getErrorCount());
+        assertNull(ResourceRegistry.getCurrent());
+    }
+
+    @Test
+    public void testLobOfClosedConnection() throws Exception {
+        Configurator.setConfiguration(new FileInputStream(new File("config/ftldb_config.xml")));
+        // a LOB is read when it is used, so it must be read into a string to outlive its connection
+        String templ = ""
+                + "<#assign c = new_connection(\"" + URL + "\", \"sa\", \"\")/>"
+                + "<#assign lazy = c.query(\"select txt from lobs where id = 1\")[0].TXT/>"
+                + "<#assign eager = c.query(\"select txt from lobs where id = 2\")[0].TXT?string/>"
+                + "<#assign void = c.close()/>"
+                + "${eager} <#attempt>${lazy}<#recover>closed</#attempt>";
+        StringWriter sw = new StringWriter();
+        TemplateProcessor.process(new StringReader(templ), sw);
+        assertEquals("two closed", sw.toString());
+    }
+
+    @Test
+    public void testStreamedRowLobs() throws Exception {
+        ResourceRegistry registry = ResourceRegistry.open();
+        try {
+            StreamingResultSet srs = conn.stream("select id, txt from lobs order by id");
+            TemplateModelIterator it = new StreamingResultSetModel(srs,
+                    new BeansWrapperBuilder(Configuration.VERSION_2_3_0).build()).iterator();
+
+            // FTL fetches the next row before processing the current one
+            assertTrue(it.hasNext());
+            Object[] row1 = ((StreamingResultSetRowModel) it.next()).row;
+            assertTrue(it.hasNext());
+            assertFalse(isFreed(row1[1]));
+
+            Object[] row2 = ((StreamingResultSetRowModel) it.next()).row;
+            assertTrue(isFreed(row1[1]));
+            assertFalse(isFreed(row2[1]));
+
+            assertTrue(it.hasNext());
+            Object[] row3 = ((StreamingResultSetRowModel) it.next()).row;
+            assertFalse(it.hasNext());
+            assertTrue(isFreed(row2[1]));
+            assertTrue(srs.isClosed());
+
+            // the last row outlives the exhausted cursor until the processing finishes
+            assertFalse(isFreed(row3[1]));
+            registry.close();
+            assertTrue(isFreed(row3[1]));
+        } finally {
+            registry.close();
+        }
+
+        assertEquals(registry.toString(), 3, registry.getLobCount());
+        assertEquals(registry.toString(), 0, registry.getResultSetCount());
+        assertEquals(registry.toString(), 0, registry.getErrorCount());
+    }
+
+    @Test
+    public void testAbandonedStream() throws Exception {
+        ResourceRegistry registry = ResourceRegistry.open();
+        Object[] row1;
+        Object[] row2;
+        try {
+            StreamingResultSet srs = conn.stream("select id, txt from lobs order by id");
+            row1 = srs.nextRow();
+            row2 = srs.nextRow();
+            srs.releaseRow(row1);
+            assertTrue(isFreed(row1[1]));
+            assertFalse(isFreed(row2[1]));
+            assertFalse(srs.isClosed());
+        } finally {
+            registry.close();
+        }
+
+        assertTrue(isFreed(row2[1]));
+        assertEquals(registry.toString(), 2, registry.getLobCount());
+        assertEquals(registry.toString(), 1, registry.getResultSetCount());
+        assertEquals(registry.toString(), 1, registry.getStatementCount());
+    }
+
+    @Test
+    public void testFetchedLobs() throws Exception {
+        ResourceRegistry registry = ResourceRegistry.open();
+        FetchedResultSet rs;
+        try {
+            rs = conn.query("select id, txt from lobs order by id");
+            for (int i = 0; i < rs.data.length; i++) {
+                assertFalse(isFreed(rs.data[i][1]));
+            }
+        } finally {
+            registry.close();
+        }
+
+        for (int i = 0; i < rs.data.length; i++) {
+            assertTrue(isFreed(rs.data[i][1]));
+        }
+        assertEquals(registry.toString(), 3, registry.getLobCount());
+    }
+
+    @Test
+    public void testUntrackedStream() throws Exception {
+        // without a registry nothing is tracked, and released rows keep their LOBs
+        StreamingResultSet srs = conn.stream("select id, txt from lobs order by id");
+        Object[] row = srs.nextRow();
+        srs.releaseRow(row);
+        assertFalse(isFreed(row[1]));
+        srs.close();
+        assertTrue(srs.isClosed());
+    }
+
+    @Test
+    public void testInEffect() throws Exception {
+        ResourceRegistry registry = ResourceRegistry.open();
+        ResourceRegistry row = ResourceRegistry.openDetached();
+        assertTrue(registry.isInEffect());
+        assertFalse(row.isInEffect());
+
+        // a nested registry made current keeps the enclosing one in effect
+        ResourceRegistry previous = ResourceRegistry.setCurrent(row);
+        assertTrue(registry.isInEffect());
+        assertTrue(row.isInEffect());
+        ResourceRegistry.setCurrent(previous);
+        row.close();
+
+        registry.close();
+        assertTrue(registry.isClosed());
+        assertFalse(registry.isInEffect());
+
+        // a later processing does not see it
+        ResourceRegistry later = ResourceRegistry.open();
+        assertFalse(registry.isInEffect());
+        later.close();
+    }
+
+}